@@ -0,0 +1,92 @@
+package bp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// writes the harness corpus: task1/*.json single-line documents, task2/*.xml documents and task3/*.txt
+// diff pairs (final state, ---, original state), alternating json and xml. documents step through sizes
+// and through the depth, fanout and shape variants of the benchmarks, so one seed always gives one corpus.
+// the modes that read something else get a directory of their own:
+//   task1.batch/*.json: newline-delimited runs of small documents
+//   task3.snapshot/NN/: the final state of task3/NN.txt in final.txt and its original saved as orig.snapshot
+//   task3.external/NN/: the two states of task3/NN.txt as the files final.txt and orig.txt
+//   task3.near/NN.txt: both states of every task3 pair of one size, all split by ---
+//   task3.stream/NN.txt: every task3 pair of one size, with a === line between pairs
+public class corpus {
+    static final int documents = 12;
+    static final int batches = 4;
+    static final int batch_documents = 1000;
+    static final int[] sizes = {2000, 20000, 200000};
+    static final int[] depths = {4, 32};
+    static final int[] fanouts = {4, 32};
+    static final String[] shapes = {"numbers", "strings"};
+
+    public static void main(String[] args) throws Exception {
+        if(args.length < 1) {
+            System.err.println("usage: corpus dir [seed]");
+            System.exit(2);
+        }
+        Path dir = Paths.get(args[0]);
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        for(String task : new String[]{"task1", "task2", "task3", "task1.batch", "task3.snapshot", "task3.external",
+                                       "task3.near", "task3.stream"}) {
+            Files.createDirectories(dir.resolve(task));
+        }
+        StringBuilder[] near = new StringBuilder[sizes.length];
+        StringBuilder[] stream = new StringBuilder[sizes.length];
+        for(int i = 0; i < sizes.length; i++) {
+            near[i] = new StringBuilder();
+            stream[i] = new StringBuilder();
+        }
+        for(int i = 0; i < documents; i++) {
+            int size = sizes[i % sizes.length];
+            int depth = depths[i / sizes.length % depths.length];
+            int fanout = fanouts[i / 2 % fanouts.length];
+            String shape = shapes[i % shapes.length];
+            String name = String.format("%02d", i);
+            write(dir.resolve("task1").resolve(name + ".json"), inputs.json(size, depth, fanout, shape, 0, seed + i)[0]);
+            write(dir.resolve("task2").resolve(name + ".xml"), inputs.xml(size, depth, fanout, shape, 0, seed + i)[0]);
+            String[] pair = i % 2 == 0 ? inputs.json(size, depth, fanout, shape, 0.01, seed + i)
+                                       : inputs.xml(size, depth, fanout, shape, 0.01, seed + i);
+            write(dir.resolve("task3").resolve(name + ".txt"), pair[1] + "\n---\n" + pair[0]);
+            StringBuilder band = near[i % sizes.length];
+            if(band.length() > 0)
+                band.append("\n---\n");
+            band.append(pair[1]).append("\n---\n").append(pair[0]);
+            band = stream[i % sizes.length];
+            if(band.length() > 0)
+                band.append("\n===\n");
+            band.append(pair[1]).append("\n---\n").append(pair[0]);
+            Path external = Files.createDirectories(dir.resolve("task3.external").resolve(name));
+            write(external.resolve("final.txt"), pair[1]);
+            write(external.resolve("orig.txt"), pair[0]);
+            Path saved = Files.createDirectories(dir.resolve("task3.snapshot").resolve(name));
+            write(saved.resolve("final.txt"), pair[1]);
+            task3.symbol_table symbols = new task3.symbol_table();
+            task3.value_table values = new task3.value_table();
+            task3.snapshot.write(saved.resolve("orig.snapshot").toString(), task3.build_store(pair[0], symbols, values), symbols, values);
+        }
+        for(int i = 0; i < sizes.length; i++) {
+            write(dir.resolve("task3.near").resolve(String.format("%02d", i) + ".txt"), near[i].toString());
+            write(dir.resolve("task3.stream").resolve(String.format("%02d", i) + ".txt"), stream[i].toString());
+        }
+        for(int i = 0; i < batches; i++) {
+            StringBuilder batch = new StringBuilder();
+            for(int j = 0; j < batch_documents; j++) {
+                int k = i * batch_documents + j;
+                if(j > 0)
+                    batch.append('\n');
+                batch.append(inputs.json(20 + k % 200, depths[k % depths.length], fanouts[k / 2 % fanouts.length],
+                        shapes[k / 4 % shapes.length], 0, seed + documents + k)[0]);
+            }
+            write(dir.resolve("task1.batch").resolve(String.format("%02d", i) + ".json"), batch.toString());
+        }
+    }
+
+    private static void write(Path path, String content) throws IOException {
+        Files.write(path, (content + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+}
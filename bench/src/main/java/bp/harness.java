@@ -0,0 +1,243 @@
+package bp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// runs every tool end to end over a corpus written by corpus: each sample is one corpus file, from opening
+// it to the answer main would print. per tool and mode it reports MB/s over all samples and the
+// p50/p99/p999 latency of single files, and with --baseline it fails when throughput drops or a
+// latency grows by more than the tolerance
+public class harness {
+    // returns what main would print for the file
+    interface tool {
+        Object run(Path file) throws Exception;
+    }
+
+    // the k of --within and --near: the smallest corpus pairs are within it and the rest stop early
+    static final int budget = 100;
+
+    static final Map<String, tool> tools = new LinkedHashMap<>();
+    // tools that run over a corpus directory of their own, named after them, instead of their task's
+    static final Set<String> own_corpus = new HashSet<>();
+    static {
+        tools.put("task1.tree", f -> task1.count_tree(task1.map_first_line(f.toString())));
+        tools.put("task1.stream", f -> task1.count_stream(task1.map_first_line(f.toString())));
+        tools.put("task1.batch", f -> {
+            StringWriter out = new StringWriter();
+            try(BufferedReader in = Files.newBufferedReader(f, StandardCharsets.US_ASCII)) {
+                task1.count_batch(in, out);
+            }
+            return out.toString();
+        });
+        own_corpus.add("task1.batch");
+        tools.put("task2.parse", f -> task2.count(task2.map_file(f.toString())));
+        tools.put("task2.stream", f -> task2.count_stream(task2.map_file(f.toString())));
+        tools.put("task2.parallel", f -> task2.count_parallel(task2.map_file(f.toString())));
+        tools.put("task3", f -> task3.diff_lines(Files.readAllLines(f, StandardCharsets.US_ASCII), false, false));
+        tools.put("task3.parallel", f -> task3.diff_lines(Files.readAllLines(f, StandardCharsets.US_ASCII), true, false));
+        tools.put("task3.compact", f -> task3.diff_lines(Files.readAllLines(f, StandardCharsets.US_ASCII), false, true));
+        tools.put("task3.snapshot", d -> task3.snapshot_diff(Files.readString(d.resolve("final.txt"), StandardCharsets.US_ASCII).trim(),
+                d.resolve("orig.snapshot").toString()));
+        own_corpus.add("task3.snapshot");
+        tools.put("task3.within", f -> task3.within(
+                task3.diff_lines(Files.readAllLines(f, StandardCharsets.US_ASCII), false, false, budget), budget));
+        tools.put("task3.near", f -> {
+            StringWriter out = new StringWriter();
+            task3.near_batch(task3.split_datasets(Files.readAllLines(f, StandardCharsets.US_ASCII)), budget, out);
+            return out.toString();
+        });
+        own_corpus.add("task3.near");
+        tools.put("task3.stream", f -> {
+            StringWriter out = new StringWriter();
+            try(BufferedReader in = Files.newBufferedReader(f, StandardCharsets.US_ASCII)) {
+                task3.diff_stream(in, false, false, -1, out);
+            }
+            return out.toString();
+        });
+        own_corpus.add("task3.stream");
+        tools.put("task3.external", d -> task3.external_diff(d.resolve("final.txt").toString(), d.resolve("orig.txt").toString(),
+                task3.run_limit));
+        own_corpus.add("task3.external");
+    }
+
+    static class result {
+        final String name;
+        final double mb_per_s;
+        final double p50, p99, p999; // microseconds
+
+        result(String name, double mb_per_s, double p50, double p99, double p999) {
+            this.name = name;
+            this.mb_per_s = mb_per_s;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.p999 = p999;
+        }
+
+        String line() {
+            return String.format(Locale.ROOT, "%-16s %10.1f %10.0f %10.0f %10.0f", name, mb_per_s, p50, p99, p999);
+        }
+
+        static result parse(String line) {
+            String[] f = line.trim().split("\\s+");
+            return new result(f[0], Double.parseDouble(f[1]), Double.parseDouble(f[2]), Double.parseDouble(f[3]), Double.parseDouble(f[4]));
+        }
+    }
+
+    static final String header = "# tool            MB/s       p50_us     p99_us     p999_us";
+
+    public static void main(String[] args) throws Exception {
+        Path dir = null, baseline = null, save = null;
+        int rounds = 20, warmup = 5;
+        double tolerance = 0.25;
+        String only = null;
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("--baseline") && i + 1 < args.length)
+                baseline = Paths.get(args[++i]);
+            else if(args[i].equals("--save") && i + 1 < args.length)
+                save = Paths.get(args[++i]);
+            else if(args[i].equals("--rounds") && i + 1 < args.length)
+                rounds = Integer.parseInt(args[++i]);
+            else if(args[i].equals("--warmup") && i + 1 < args.length)
+                warmup = Integer.parseInt(args[++i]);
+            else if(args[i].equals("--tolerance") && i + 1 < args.length)
+                tolerance = Double.parseDouble(args[++i]);
+            else if(args[i].equals("--only") && i + 1 < args.length)
+                only = args[++i];
+            else
+                dir = Paths.get(args[i]);
+        }
+        if(dir == null) {
+            System.err.println("usage: harness corpus_dir [--rounds n] [--warmup n] [--only prefix] [--save file] [--baseline file] [--tolerance f]");
+            System.exit(2);
+        }
+        for(String task : new String[]{"task1", "task2", "task3"})
+            check_corpus(task, files(dir.resolve(task)));
+        List<result> results = new ArrayList<>();
+        System.out.println(header);
+        for(Map.Entry<String, tool> e : tools.entrySet()) {
+            if(only != null && !e.getKey().startsWith(only))
+                continue;
+            String corpus = own_corpus.contains(e.getKey()) ? e.getKey() : e.getKey().substring(0, 5);
+            result r = measure(e.getKey(), e.getValue(), files(dir.resolve(corpus)), warmup, rounds);
+            System.out.println(r.line());
+            results.add(r);
+        }
+        if(save != null) {
+            List<String> lines = new ArrayList<>();
+            lines.add(header);
+            for(result r : results)
+                lines.add(r.line());
+            Files.write(save, lines);
+        }
+        if(baseline != null && !compare(results, Files.readAllLines(baseline), tolerance))
+            System.exit(1);
+    }
+
+    static List<Path> files(Path dir) throws IOException {
+        try(Stream<Path> s = Files.list(dir)) {
+            List<Path> files = s.sorted().collect(Collectors.toList());
+            if(files.isEmpty())
+                throw new IOException("no corpus files in " + dir);
+            return files;
+        }
+    }
+
+    // every tool runs on documents the default modes accept. a 0 answer is a rejected document for task1
+    // and task2, but from task3 it is the diff of identical datasets, so a pair is checked by building it
+    static void check_corpus(String task, List<Path> files) throws IOException {
+        for(Path f : files) {
+            boolean valid;
+            if(task.equals("task1"))
+                valid = task1.count_tree(task1.map_first_line(f.toString())) != 0;
+            else if(task.equals("task2"))
+                valid = task2.count(task2.map_file(f.toString())) != 0;
+            else
+                valid = task3.build_pair(Files.readAllLines(f, StandardCharsets.US_ASCII)) != null;
+            if(!valid)
+                throw new IllegalStateException(task + " rejects corpus file " + f);
+        }
+    }
+
+    // warmup rounds run every file without recording, then each measured round runs every file once
+    static result measure(String name, tool t, List<Path> files, int warmup, int rounds) throws Exception {
+        long bytes = 0;
+        for(Path f : files)
+            bytes += size(f);
+        for(int i = 0; i < warmup; i++) {
+            for(Path f : files)
+                t.run(f);
+        }
+        long[] samples = new long[rounds * files.size()];
+        int n = 0;
+        long total = 0;
+        for(int i = 0; i < rounds; i++) {
+            for(Path f : files) {
+                long start = System.nanoTime();
+                t.run(f);
+                long took = System.nanoTime() - start;
+                samples[n++] = took;
+                total += took;
+            }
+        }
+        Arrays.sort(samples);
+        double mb_per_s = (double) bytes * rounds / (1 << 20) / (total / 1e9);
+        return new result(name, mb_per_s, percentile(samples, 0.5), percentile(samples, 0.99), percentile(samples, 0.999));
+    }
+
+    // a corpus entry is a file, or a directory of the files one run reads
+    static long size(Path f) throws IOException {
+        if(!Files.isDirectory(f))
+            return Files.size(f);
+        long size = 0;
+        for(Path p : files(f))
+            size += Files.size(p);
+        return size;
+    }
+
+    static double percentile(long[] sorted, double p) {
+        int i = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(i, sorted.length - 1))] / 1e3;
+    }
+
+    // tools missing from the baseline are reported but not compared
+    static boolean compare(List<result> results, List<String> baseline_lines, double tolerance) {
+        Map<String, result> baseline = new HashMap<>();
+        for(String line : baseline_lines) {
+            if(!line.isBlank() && !line.startsWith("#")) {
+                result r = result.parse(line);
+                baseline.put(r.name, r);
+            }
+        }
+        boolean ok = true;
+        for(result r : results) {
+            result b = baseline.get(r.name);
+            if(b == null) {
+                System.out.println(r.name + ": not in baseline");
+                continue;
+            }
+            List<String> regressions = new ArrayList<>();
+            if(r.mb_per_s < b.mb_per_s * (1 - tolerance))
+                regressions.add(String.format(Locale.ROOT, "MB/s %.1f < %.1f", r.mb_per_s, b.mb_per_s));
+            if(r.p50 > b.p50 * (1 + tolerance))
+                regressions.add(String.format(Locale.ROOT, "p50 %.0fus > %.0fus", r.p50, b.p50));
+            if(r.p99 > b.p99 * (1 + tolerance))
+                regressions.add(String.format(Locale.ROOT, "p99 %.0fus > %.0fus", r.p99, b.p99));
+            if(r.p999 > b.p999 * (1 + tolerance))
+                regressions.add(String.format(Locale.ROOT, "p999 %.0fus > %.0fus", r.p999, b.p999));
+            if(!regressions.isEmpty()) {
+                System.out.println(r.name + ": REGRESSION " + String.join(", ", regressions));
+                ok = false;
+            }
+        }
+        System.out.println(ok ? "no regressions" : "regressions against baseline");
+        return ok;
+    }
+}
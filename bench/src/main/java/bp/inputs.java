@@ -0,0 +1,152 @@
+package bp;
+
+import java.util.Random;
+
+// seeded documents for the benchmarks and the corpus, valid under the rules in tasks/. a document holds
+// about size leaf values, containers nest at most depth levels below the root and hold 1 to fanout
+// children, and leaves are mostly numbers or mostly quoted strings, with some booleans, nulls and escapes.
+// every generator writes two documents with the same structure whose leaves differ with probability
+// changed, so the same call gives a single input or a diff pair
+final class inputs {
+    final StringBuilder a = new StringBuilder();
+    final StringBuilder b = new StringBuilder();
+    private final Random structure;
+    private final Random values;
+    private final boolean xml;
+    private final int depth;
+    private final int fanout;
+    private final boolean strings;
+    private final double changed;
+    private int budget;
+
+    private inputs(int size, int depth, int fanout, boolean strings, double changed, boolean xml, long seed) {
+        this.structure = new Random(seed);
+        this.values = new Random(seed * 31 + 7);
+        this.xml = xml;
+        this.budget = size;
+        this.depth = depth;
+        this.fanout = fanout;
+        this.strings = strings;
+        this.changed = changed;
+    }
+
+    static String[] json(int size, int depth, int fanout, String shape, double changed) {
+        return json(size, depth, fanout, shape, changed, 42);
+    }
+
+    static String[] json(int size, int depth, int fanout, String shape, double changed, long seed) {
+        inputs in = new inputs(size, depth, fanout, shape.equals("strings"), changed, false, seed);
+        in.append("{");
+        for(int i = 0; in.budget > 0; i++) {
+            in.append(i == 0 ? "\"k" + i + "\":" : ",\"k" + i + "\":");
+            in.json_value(1);
+        }
+        in.append("}");
+        return new String[]{in.a.toString(), in.b.toString()};
+    }
+
+    static String[] xml(int size, int depth, int fanout, String shape, double changed) {
+        return xml(size, depth, fanout, shape, changed, 42);
+    }
+
+    static String[] xml(int size, int depth, int fanout, String shape, double changed, long seed) {
+        inputs in = new inputs(size, depth, fanout, shape.equals("strings"), changed, true, seed);
+        in.append("<root>");
+        while(in.budget > 0) {
+            in.xml_element(1);
+        }
+        in.append("</root>");
+        return new String[]{in.a.toString(), in.b.toString()};
+    }
+
+    private void json_value(int level) {
+        if(!container(level)) {
+            leaf();
+            return;
+        }
+        int children = 1 + structure.nextInt(fanout);
+        if(structure.nextBoolean()) {
+            append("[");
+            for(int i = 0; i < children && budget > 0; i++) {
+                if(i > 0)
+                    append(",");
+                json_value(level + 1);
+            }
+            append("]");
+        } else {
+            append("{");
+            for(int i = 0; i < children && budget > 0; i++) {
+                append(i == 0 ? "\"k" + i + "\":" : ",\"k" + i + "\":");
+                json_value(level + 1);
+            }
+            append("}");
+        }
+    }
+
+    // repeated tag names among siblings become arrays in task3 and tag groups in task2
+    private void xml_element(int level) {
+        String tag = "t" + structure.nextInt(fanout);
+        append("<" + tag + ">");
+        if(container(level)) {
+            int children = 1 + structure.nextInt(fanout);
+            for(int i = 0; i < children && budget > 0; i++) {
+                xml_element(level + 1);
+            }
+        } else {
+            leaf();
+        }
+        append("</" + tag + ">");
+    }
+
+    private boolean container(int level) {
+        return level < depth && budget > 1 && structure.nextInt(3) != 0;
+    }
+
+    private void leaf() {
+        budget--;
+        String value = leaf_value();
+        a.append(value);
+        b.append(values.nextDouble() < changed ? leaf_value() : value);
+    }
+
+    // one leaf in twenty is a boolean or null, which xml writes as an empty value
+    private String leaf_value() {
+        int kind = values.nextInt(20);
+        if(kind == 0)
+            return values.nextBoolean() ? "true" : "false";
+        if(kind == 1)
+            return xml ? "" : "null";
+        if(strings == (kind < 17))
+            return string_value();
+        if(values.nextBoolean())
+            return Long.toString(values.nextInt(1000000) - 1000);
+        return values.nextBoolean() ? values.nextInt(1000) + "." + values.nextInt(100) : "." + values.nextInt(1000);
+    }
+
+    // printable ASCII with the escapes each format allows
+    private String string_value() {
+        StringBuilder sb = new StringBuilder("\"");
+        int length = 8 + values.nextInt(17);
+        for(int i = 0; i < length; i++) {
+            int c = values.nextInt(40);
+            if(c < 26)
+                sb.append((char) ('a' + c));
+            else if(c < 36)
+                sb.append((char) ('0' + c - 26));
+            else if(c == 36)
+                sb.append(' ');
+            else if(c == 37)
+                sb.append("\\\"");
+            else if(c == 38)
+                sb.append("\\\\");
+            else
+                sb.append(xml ? "\\>" : "/");
+        }
+        return sb.append('"').toString();
+    }
+
+    private void append(String s) {
+        a.append(s);
+        b.append(s);
+    }
+}
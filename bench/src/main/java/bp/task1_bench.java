@@ -0,0 +1,42 @@
+package bp;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// task1 counting, over a tape and with the streaming counter
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class task1_bench {
+    @Param({"1000", "100000"})
+    int size;
+    @Param({"4", "32"})
+    int depth;
+    @Param({"4", "32"})
+    int fanout;
+    @Param({"numbers", "strings"})
+    String shape;
+
+    String json;
+
+    @Setup
+    public void setup() {
+        json = inputs.json(size, depth, fanout, shape, 0)[0];
+        if(task1.count_tree(json) == 0)
+            throw new IllegalStateException("generated input is not valid");
+    }
+
+    // json_event_parser onto a tape, then json_counter over the tape
+    @Benchmark
+    public int tree() {
+        return task1.count_tree(json);
+    }
+
+    @Benchmark
+    public int stream() {
+        return task1.count_stream(json);
+    }
+}
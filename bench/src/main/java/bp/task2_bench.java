@@ -0,0 +1,41 @@
+package bp;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// task2 counting, with xml_parser.parse_element and with the streaming counter
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class task2_bench {
+    @Param({"1000", "100000"})
+    int size;
+    @Param({"4", "32"})
+    int depth;
+    @Param({"4", "32"})
+    int fanout;
+    @Param({"numbers", "strings"})
+    String shape;
+
+    String xml;
+
+    @Setup
+    public void setup() {
+        xml = inputs.xml(size, depth, fanout, shape, 0)[0];
+        if(task2.count(xml) == 0)
+            throw new IllegalStateException("generated input is not valid");
+    }
+
+    @Benchmark
+    public int parse() {
+        return task2.count(xml);
+    }
+
+    @Benchmark
+    public int stream() {
+        return task2.count_stream(xml);
+    }
+}
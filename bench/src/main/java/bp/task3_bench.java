@@ -0,0 +1,72 @@
+package bp;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// the task3 phases on their own: parsing, building and finishing the trees, and diffing finished trees
+// as tree_nodes and as tree_stores. the pair differs in about 1% of its leaves
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class task3_bench {
+    @Param({"1000", "100000"})
+    int size;
+    @Param({"4", "32"})
+    int depth;
+    @Param({"4", "32"})
+    int fanout;
+    @Param({"numbers", "strings"})
+    String shape;
+    @Param({"json", "xml"})
+    String format;
+
+    String orig, fin;
+    task3.tree_node orig_tree, final_tree;
+    task3.tree_store orig_store, final_store;
+
+    @Setup
+    public void setup() throws Exception {
+        String[] pair = format.equals("json") ? inputs.json(size, depth, fanout, shape, 0.01)
+                                              : inputs.xml(size, depth, fanout, shape, 0.01);
+        orig = pair[0];
+        fin = pair[1];
+        task3.symbol_table symbols = new task3.symbol_table();
+        orig_tree = task3.build_tree(orig, symbols);
+        final_tree = task3.build_tree(fin, symbols);
+        symbols.freeze();
+        task3.finish(orig_tree, symbols);
+        task3.finish(final_tree, symbols);
+        task3.value_table values = new task3.value_table();
+        orig_store = task3.tree_store.of(orig_tree, values);
+        final_store = task3.tree_store.of(final_tree, values);
+    }
+
+    // both parsers build tree_nodes as they scan, so this is parse and build without finish()
+    @Benchmark
+    public task3.tree_node parse() throws Exception {
+        return task3.build_tree(orig, new task3.symbol_table());
+    }
+
+    // parse, build and finish, as main does for each dataset
+    @Benchmark
+    public task3.tree_node build() throws Exception {
+        task3.symbol_table symbols = new task3.symbol_table();
+        task3.tree_node tree = task3.build_tree(orig, symbols);
+        symbols.freeze();
+        task3.finish(tree, symbols);
+        return tree;
+    }
+
+    @Benchmark
+    public int children_diff() {
+        return task3.children_diff(orig_tree.children, final_tree.children);
+    }
+
+    @Benchmark
+    public int store_diff() {
+        return task3.store_children_diff(orig_store, 0, final_store, 0);
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * this file is part of bp-json-xml project.
+ *
+ * Copyright (C) 2025 Hesam Tavakoli
+ *
+ * bp-json-xml is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+// regression checks for the modes. every mode of every tool runs through its main over the fixtures in
+// test_cases and has to print the expected output, then over seeded random documents and pairs and has to
+// print what the default mode prints; the vector index has to give exactly the scalar index's entries.
+// run from the repository root:
+//   javac --add-modules jdk.incubator.vector check.java json_vector_index.java
+//   java --add-modules jdk.incubator.vector check [seed]
+// without the module, javac check.java and java check run everything but the vector checks, which are
+// reported as skipped. prints each failure and exits 1 if there was any
+public class check {
+    interface tool {
+        void main(String[] args) throws Exception;
+    }
+
+    static Random random;
+    static int checks;
+    static int failures;
+    static Path dir;
+
+    public static void main(String[] args) throws Exception {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        random = new Random(seed);
+        dir = Files.createTempDirectory("bp-check");
+        try {
+            vector_index();
+            fixtures();
+            task1_modes();
+            task2_modes();
+            task3_modes();
+        } finally {
+            try(DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for(Path f : files)
+                    Files.delete(f);
+            }
+            Files.delete(dir);
+        }
+        System.out.println(checks + " checks, " + failures + " failed (seed " + seed + ")");
+        if(failures > 0)
+            System.exit(1);
+    }
+
+    static void expect(String what, Object expected, Object got) {
+        checks++;
+        if(!expected.equals(got)) {
+            failures++;
+            System.out.println("FAIL " + what + ": expected " + expected + ", got " + got);
+        }
+    }
+
+    // what main prints for args with input on stdin, without the trailing newline
+    static String run(tool t, String input, String... args) throws Exception {
+        InputStream in = System.in;
+        PrintStream out = System.out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        System.setIn(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+        System.setOut(new PrintStream(bytes, true, StandardCharsets.UTF_8));
+        try {
+            t.main(args);
+        } finally {
+            System.setIn(in);
+            System.setOut(out);
+        }
+        return bytes.toString(StandardCharsets.UTF_8).replace("\r", "").trim();
+    }
+
+    static String file(String name, String content) throws IOException {
+        Path p = dir.resolve(name);
+        Files.write(p, content.getBytes(StandardCharsets.UTF_8));
+        return p.toString();
+    }
+
+    // ---- the vector index against the scalar one ----
+
+    // entries of both indexes over random strings heavy in quotes, backslashes and the characters the strict
+    // dialect rejects, long enough to cross blocks, as a String and as another CharSequence
+    static void vector_index() {
+        boolean module = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+        boolean compiled;
+        try {
+            // without initializing it, which would run structural_index's probe before its own statics
+            Class.forName("json_vector_index", false, check.class.getClassLoader());
+            compiled = true;
+        } catch(ClassNotFoundException | LinkageError e) {
+            compiled = false;
+        }
+        if(!module || !compiled) {
+            System.out.println("vector index: skipped, " + (module ? "json_vector_index.java not compiled" : "run without jdk.incubator.vector"));
+            return;
+        }
+        expect("vector index in use", true, json_event_parser.structural_index.of("\"a\"", true) != null);
+        if(json_event_parser.structural_index.of("\"a\"", true) == null)
+            return;
+        String alphabet = "\"\"\\\\abc {}:,\u0001\u007f\u00e9\u4e2d\uffff/nt";
+        for(int n = 0; n < 400; n++) {
+            int length = n < 200 ? random.nextInt(300) : random.nextInt(3 * json_event_parser.structural_index.block);
+            StringBuilder sb = new StringBuilder(length);
+            // runs of plain text between the specials, so whole vectors are skipped too
+            while(sb.length() < length) {
+                if(random.nextInt(4) == 0)
+                    sb.append("x".repeat(random.nextInt(100)));
+                else
+                    sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String s = sb.toString();
+            for(boolean strict : new boolean[]{true, false}) {
+                String what = "vector index entries, strict " + strict + ", input " + n;
+                List<Integer> scalar = entries(new json_event_parser.structural_index(s, strict));
+                expect(what, scalar, entries(json_event_parser.structural_index.of(s, strict)));
+                expect(what + " as a StringBuilder", scalar, entries(json_event_parser.structural_index.of(sb, strict)));
+            }
+        }
+    }
+
+    static List<Integer> entries(json_event_parser.structural_index index) {
+        List<Integer> entries = new ArrayList<>();
+        for(int e = index.next(); e != json_event_parser.structural_index.none; e = index.next())
+            entries.add(e);
+        return entries;
+    }
+
+    // ---- fixtures through every mode ----
+
+    static void fixtures() throws Exception {
+        for(int t = 1; t <= 3; t++) {
+            Path in = Paths.get("test_cases", "task" + t, "in");
+            try(DirectoryStream<Path> inputs = Files.newDirectoryStream(in, "input*.txt")) {
+                for(Path input : inputs) {
+                    String name = input.getFileName().toString();
+                    String text = Files.readString(input).replace("\r", "");
+                    String expected = Files.readString(in.resolveSibling("out").resolve(name.replace("input", "output"))).trim();
+                    fixture(t, "task" + t + " " + name, text, expected);
+                }
+            }
+        }
+    }
+
+    static void fixture(int task, String what, String text, String expected) throws Exception {
+        if(task == 1) {
+            String path = file("fixture.json", text);
+            for(String[] args : new String[][]{{}, {"--stream"}, {path}, {"--stream", path}})
+                expect(what + " " + Arrays.toString(args), expected, run(task1::main, text, args));
+            expect(what + " [--batch]", expected, run(task1::main, text.split("\n", 2)[0], "--batch"));
+        } else if(task == 2) {
+            String path = file("fixture.xml", text);
+            for(String[] args : new String[][]{{}, {"--stream"}, {"--parallel"}, {path}, {"--stream", path}, {"--parallel", path}})
+                expect(what + " " + Arrays.toString(args), expected, run(task2::main, text, args));
+        } else {
+            task3_pair(what, text, Integer.parseInt(expected));
+        }
+    }
+
+    // ---- task1 and task2 over random documents ----
+
+    static void task1_modes() throws Exception {
+        for(int n = 0; n < 300; n++) {
+            String doc = mutate(json(random_tree(3, 6), false));
+            String what = "task1 random " + n;
+            int expected = task1.count_tree(doc);
+            expect(what + " stream", expected, task1.count_stream(doc));
+            if(n % 10 == 0) {
+                String path = file("random.json", doc);
+                expect(what + " mmap", String.valueOf(expected), run(task1::main, "", path));
+            }
+        }
+    }
+
+    // documents over 2 MB, which --parallel cuts into chunks, among them ones that are not valid
+    static void task2_modes() throws Exception {
+        for(int n = 0; n < 300; n++) {
+            String doc = mutate(xml("root", random_tree(3, 6)));
+            int expected = task2.count(doc);
+            expect("task2 random " + n + " stream", expected, task2.count_stream(doc));
+            expect("task2 random " + n + " parallel", expected, task2.count_parallel(doc));
+        }
+        for(int n = 0; n < 6; n++) {
+            StringBuilder sb = new StringBuilder("<root>");
+            while(sb.length() < 3 << 20)
+                sb.append(n < 3 ? "\n  " : "").append(xml(random.nextBoolean() ? "item" : "other", random_tree(3, 5)));
+            sb.append("</root>");
+            String doc = n % 3 == 2 ? mutate(sb.toString()) : sb.toString();
+            int expected = task2.count(doc);
+            expect("task2 large " + n + " stream", expected, task2.count_stream(doc));
+            expect("task2 large " + n + " parallel", expected, task2.count_parallel(doc));
+        }
+    }
+
+    // ---- task3 pairs through every mode ----
+
+    // one pair, final dataset, "---", original dataset, whose default answer is expected
+    static void task3_pair(String what, String text, int expected) throws Exception {
+        String[] sides = text.split("\n[ \t]*---[ \t]*\n", 2);
+        String fin = sides[0].trim(), orig = sides.length > 1 ? sides[1].trim() : "";
+        String e = String.valueOf(expected);
+        expect(what + " default", e, run(task3::main, text));
+        expect(what + " --parallel", e, run(task3::main, text, "--parallel"));
+        expect(what + " --compact", e, run(task3::main, text, "--compact"));
+        expect(what + " --stream", e, run(task3::main, text, "--stream"));
+        expect(what + " --against", e, run(task3::main, orig + "\n---\n" + fin, "--against"));
+        String[] row = run(task3::main, orig + "\n---\n" + fin, "--matrix").split("\n")[0].split(" ");
+        expect(what + " --matrix", e, row.length > 1 ? row[1] : "");
+        expect(what + " --external", e, run(task3::main, "", "--external", file("final.txt", fin), file("orig.txt", orig)));
+        String snapshot = dir.resolve("orig.snapshot").toString();
+        if(run(task3::main, orig, "--save", snapshot).isEmpty())
+            expect(what + " --snapshot", e, run(task3::main, fin, "--snapshot", snapshot));
+        if(expected > 0) {
+            expect(what + " --within " + expected, e, run(task3::main, text, "--within", e));
+            expect(what + " --within " + (expected - 1), ">" + (expected - 1), run(task3::main, text, "--within", String.valueOf(expected - 1)));
+        }
+    }
+
+    static void task3_modes() throws Exception {
+        List<String> pairs = new ArrayList<>();
+        List<String> answers = new ArrayList<>();
+        List<String> datasets = new ArrayList<>();
+        for(int n = 0; n < 120; n++) {
+            Map<String, Object> orig = random_tree(3, 5);
+            Map<String, Object> fin = edit(orig, 1 + random.nextInt(4));
+            String pair = dataset(fin) + "\n---\n" + dataset(orig);
+            if(n % 15 == 0)
+                pair = mutate(pair);
+            int expected = task3.diff_lines(Arrays.asList(pair.split("\n", -1)), false, false);
+            task3_pair("task3 random " + n, pair, expected);
+            pairs.add(pair);
+            answers.add(String.valueOf(expected));
+            if(n < 40) {
+                datasets.add(dataset(orig));
+                datasets.add(dataset(fin));
+            }
+        }
+        // the largest budget still tells an impossible diff from one within it
+        String impossible = "{\"a\":[1,{\"x\":1}]}\n---\n{\"a\":[1]}";
+        String top = String.valueOf(task3.inf - 2);
+        expect("task3 --within " + top + " on an impossible diff", ">" + top, run(task3::main, impossible, "--within", top));
+        expect("task3 --within " + (task3.inf - 1) + " rejected", -1, task3.parse_budget(String.valueOf(task3.inf - 1)));
+        expect("task3 --within -1 rejected", -1, task3.parse_budget("-1"));
+        expect("task3 --within abc rejected", -1, task3.parse_budget("abc"));
+        expect("task3 --stream over all pairs", String.join("\n", answers), run(task3::main, String.join("\n===\n", pairs), "--stream"));
+        // records of blank lines, at either end or between two "===" lines, are not pairs
+        String padded = "\n===\n" + String.join("\n===\n  \n===\n", pairs) + "\n===\n\n";
+        expect("task3 --stream with blank records", String.join("\n", answers), run(task3::main, padded, "--stream"));
+        // --near prints only pairs within k, each with its default answer
+        String near = run(task3::main, String.join("\n---\n", datasets), "--near", "3");
+        for(String line : near.isEmpty() ? new String[0] : near.split("\n")) {
+            String[] f = line.split(" ");
+            int i = Integer.parseInt(f[0]), j = Integer.parseInt(f[1]);
+            String pair = datasets.get(j) + "\n---\n" + datasets.get(i);
+            expect("task3 --near " + line, run(task3::main, pair), f[2]);
+        }
+    }
+
+    // ---- random documents ----
+
+    // an object of up to width members nested up to depth levels; keys come from a small set so that
+    // trees share names, values are numbers, strings, literals, arrays and objects
+    static Map<String, Object> random_tree(int depth, int width) {
+        Map<String, Object> object = new TreeMap<>();
+        int n = random.nextInt(width) + 1;
+        for(int i = 0; i < n; i++)
+            object.put("k" + random.nextInt(width * 2), random_value(depth - 1, width));
+        return object;
+    }
+
+    static Object random_value(int depth, int width) {
+        int kind = random.nextInt(depth > 0 ? 7 : 4);
+        switch(kind) {
+            case 0: return String.valueOf(random.nextInt(100));
+            case 1: return "\"s" + random.nextInt(20) + (random.nextInt(8) == 0 ? "\\\"" : "") + "\"";
+            case 2: return random.nextBoolean() ? "true" : "null";
+            case 3: return random.nextInt(3) + "." + random.nextInt(10);
+            case 4: {
+                List<Object> array = new ArrayList<>();
+                int n = random.nextInt(width);
+                for(int i = 0; i < n; i++)
+                    array.add(random_value(depth - 1, width));
+                return array;
+            }
+            default: return random_tree(depth, width);
+        }
+    }
+
+    // a copy of tree with each leaf member changed, removed or followed by a new leaf with probability
+    // 1 / spread, and now and then a new object, which no edit script can add
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> edit(Map<String, Object> tree, int spread) {
+        Map<String, Object> copy = new TreeMap<>();
+        for(Map.Entry<String, Object> e : tree.entrySet()) {
+            Object v = e.getValue();
+            if(v instanceof Map) {
+                copy.put(e.getKey(), edit((Map<String, Object>) v, spread));
+            } else if(v instanceof List || random.nextInt(spread) != 0) {
+                copy.put(e.getKey(), v);
+            } else {
+                switch(random.nextInt(4)) {
+                    case 0: break;
+                    case 1: copy.put(e.getKey(), v); copy.put("k" + random.nextInt(10), random_value(0, 3)); break;
+                    default: copy.put(e.getKey(), random_value(0, 3));
+                }
+            }
+        }
+        if(random.nextInt(40) == 0)
+            copy.put("k" + random.nextInt(10), random_tree(1, 2));
+        return copy;
+    }
+
+    // task1 takes a single line, task3 any layout
+    @SuppressWarnings("unchecked")
+    static String json(Object value, boolean pretty) {
+        if(value instanceof Map) {
+            StringBuilder sb = new StringBuilder("{");
+            for(Map.Entry<String, Object> e : ((Map<String, Object>) value).entrySet()) {
+                if(sb.length() > 1)
+                    sb.append(',');
+                sb.append(pretty ? "\n  " : "").append('"').append(e.getKey()).append("\":").append(json(e.getValue(), pretty));
+            }
+            return sb.append('}').toString();
+        }
+        if(value instanceof List) {
+            StringBuilder sb = new StringBuilder("[");
+            for(Object v : (List<Object>) value) {
+                if(sb.length() > 1)
+                    sb.append(',');
+                sb.append(json(v, pretty));
+            }
+            return sb.append(']').toString();
+        }
+        return (String) value;
+    }
+
+    // an array becomes repeated elements of its key, as task2 and task3 group them
+    @SuppressWarnings("unchecked")
+    static String xml(String tag, Object value) {
+        StringBuilder sb = new StringBuilder();
+        if(value instanceof Map) {
+            sb.append('<').append(tag).append('>');
+            for(Map.Entry<String, Object> e : ((Map<String, Object>) value).entrySet())
+                sb.append(xml(e.getKey(), e.getValue()));
+            return sb.append("</").append(tag).append('>').toString();
+        }
+        if(value instanceof List) {
+            for(Object v : (List<Object>) value)
+                sb.append(xml(tag, v));
+            return sb.toString();
+        }
+        String leaf = ((String) value).replace("<", "\\<");
+        return sb.append('<').append(tag).append('>').append(leaf.equals("null") ? "" : leaf).append("</").append(tag).append('>').toString();
+    }
+
+    static String dataset(Map<String, Object> tree) {
+        return random.nextBoolean() ? json(tree, random.nextBoolean()) : xml("root", tree);
+    }
+
+    // now and then a document with one character inserted, so invalid input is checked as well
+    static String mutate(String doc) {
+        if(random.nextInt(6) != 0 || doc.isEmpty())
+            return doc;
+        int p = random.nextInt(doc.length());
+        String inserts = "<>\"/\\{},: x";
+        return doc.substring(0, p) + inserts.charAt(random.nextInt(inserts.length())) + doc.substring(p);
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * this file is part of bp-json-xml project.
+ *
+ * Copyright (C) 2025 Hesam Tavakoli
+ *
+ * bp-json-xml is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+// keeps task1, task2 and task3 in one warmed-up JVM behind a loopback socket, so a request costs the
+// parse and not JVM startup. a connection carries any number of requests, answered in order:
+//   request:  op (1 byte) | payload length (4 bytes, big-endian) | payload (UTF-8)
+//   response: status (1 byte) | answer (4 bytes, big-endian)
+// op 1 counts JSON like task1, op 2 counts XML like task2 and op 3 diffs a task3 input (final dataset,
+// "---", original dataset). an invalid document answers 0 with status ok, exactly what the tools print;
+// status bad_request means the frame itself was wrong and the connection is closed, and status failed
+// means the tool threw on this request, after which the connection carries on with the next one
+public class daemon {
+    static final byte op_count_json = 1;
+    static final byte op_count_xml = 2;
+    static final byte op_diff = 3;
+    static final byte status_ok = 0;
+    static final byte status_bad_request = 1;
+    static final byte status_failed = 2;
+    static final int default_port = 7047;
+    static final int max_payload = 1 << 26;
+    // the payload buffer starts at most this large and doubles as bytes arrive, so a length prefix alone
+    // cannot make the daemon allocate more than this
+    static final int read_chunk = 1 << 16;
+
+    // the answer the matching tool prints for payload read from stdin
+    static int handle(byte op, String payload) {
+        switch(op) {
+            case op_count_json: {
+                // task1 reads a single line
+                int end = 0;
+                while(end < payload.length() && payload.charAt(end) != '\n' && payload.charAt(end) != '\r') {
+                    end++;
+                }
+                return task1.count_stream(payload.substring(0, end));
+            }
+            case op_count_xml:
+                return task2.count_stream(payload);
+            case op_diff: {
+                List<String> lines = new BufferedReader(new StringReader(payload)).lines().collect(Collectors.toList());
+                return task3.diff_lines(lines, false, false);
+            }
+            default:
+                throw new IllegalArgumentException("unknown op " + op);
+        }
+    }
+
+    // one virtual thread per connection where the runtime has them (JDK 21+); a cached pool of platform
+    // threads otherwise. looked up reflectively so the file still compiles and runs on JDK 17. requests on
+    // a connection are answered one after another in order, so each runs on its connection's thread
+    static ExecutorService connection_executor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch(ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "daemon-connection");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    // runs every request type until the JIT has compiled the parsers and the diff
+    static void warm_up(int rounds) {
+        StringBuilder json = new StringBuilder("{");
+        StringBuilder xml = new StringBuilder("<root>");
+        for(int i = 0; i < 64; i++) {
+            json.append(i == 0 ? "" : ",").append("\"k").append(i).append("\":[").append(i)
+                .append(",\"s\\\"").append(i).append("\",true,null,{\"x\":.5}]");
+            xml.append("<a>").append(i).append("</a><b><c>\"s\\<").append(i).append("\"</c><d>true</d><e></e></b>");
+        }
+        json.append("}");
+        xml.append("</root>");
+        String json_pair = json + "\n---\n" + json.toString().replace("\"x\":.5", "\"x\":1.5");
+        String xml_pair = xml + "\n---\n" + xml.toString().replace("<d>true</d>", "<d>false</d>");
+        for(int i = 0; i < rounds; i++) {
+            handle(op_count_json, json.toString());
+            handle(op_count_xml, xml.toString());
+            handle(op_diff, json_pair);
+            handle(op_diff, xml_pair);
+        }
+    }
+
+    static void serve(int port) throws IOException {
+        warm_up(5000);
+        task1.metrics.register();
+        task2.metrics.register();
+        task3.metrics.register();
+        ExecutorService connections = connection_executor();
+        try(ServerSocket server = new ServerSocket(port, 128, InetAddress.getLoopbackAddress())) {
+            System.err.println("daemon listening on " + server.getLocalSocketAddress());
+            while(true) {
+                Socket socket = server.accept();
+                connections.execute(() -> serve_connection(socket));
+            }
+        }
+    }
+
+    static void serve_connection(Socket socket) {
+        try(socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            while(true) {
+                int op = in.read();
+                if(op < 0)
+                    return; // client closed
+                int length = in.readInt();
+                if(op < op_count_json || op > op_diff || length < 0 || length > max_payload) {
+                    out.writeByte(status_bad_request);
+                    out.writeInt(0);
+                    out.flush();
+                    return;
+                }
+                String payload = new String(read_payload(in, length), StandardCharsets.UTF_8);
+                int answer;
+                byte status = status_ok;
+                try {
+                    answer = handle((byte) op, payload);
+                } catch(Exception e) {
+                    System.err.println("daemon request failed: " + e);
+                    status = status_failed;
+                    answer = 0;
+                }
+                out.writeByte(status);
+                out.writeInt(answer);
+                if(in.available() == 0)
+                    out.flush(); // pipelined requests get their answers in one write
+            }
+        } catch(EOFException e) {
+            // client closed mid-frame
+        } catch(IOException e) {
+            System.err.println("daemon connection failed: " + e.getMessage());
+        }
+    }
+
+    // reads the length bytes of a payload, growing the buffer as they arrive
+    static byte[] read_payload(DataInputStream in, int length) throws IOException {
+        byte[] payload = new byte[Math.min(length, read_chunk)];
+        int n = 0;
+        while(n < length) {
+            if(n == payload.length)
+                payload = Arrays.copyOf(payload, (int) Math.min(length, 2L * n));
+            int read = in.read(payload, n, payload.length - n);
+            if(read < 0)
+                throw new EOFException();
+            n += read;
+        }
+        return payload;
+    }
+
+    // sends one request and returns the answer
+    static int request(DataInputStream in, DataOutputStream out, byte op, byte[] payload) throws IOException {
+        out.writeByte(op);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.flush();
+        byte status = in.readByte();
+        int answer = in.readInt();
+        if(status == status_failed)
+            throw new IOException("daemon failed on the request");
+        if(status != status_ok)
+            throw new IOException("daemon rejected the request");
+        return answer;
+    }
+
+    static byte op_of(String name) {
+        switch(name) {
+            case "count-json": return op_count_json;
+            case "count-xml": return op_count_xml;
+            case "diff": return op_diff;
+            default: throw new IllegalArgumentException("unknown request " + name + ", expected count-json, count-xml or diff");
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        // --serve [--port n] starts the daemon
+        // count-json|count-xml|diff [file] [--port n] sends file, or stdin, to a running daemon and prints the answer
+        int port = default_port;
+        boolean serve = false;
+        String request = null;
+        String path = null;
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("--serve"))
+                serve = true;
+            else if(args[i].equals("--port") && i + 1 < args.length)
+                port = Integer.parseInt(args[++i]);
+            else if(request == null)
+                request = args[i];
+            else
+                path = args[i];
+        }
+        if(serve) {
+            serve(port);
+            return;
+        }
+        if(request == null) {
+            System.err.println("usage: java daemon --serve [--port n] | java daemon count-json|count-xml|diff [file] [--port n]");
+            System.exit(2);
+        }
+        byte op = op_of(request);
+        byte[] payload;
+        if(path != null) {
+            payload = Files.readAllBytes(Paths.get(path));
+        } else {
+            payload = System.in.readAllBytes();
+        }
+        try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            System.out.println(request(in, out, op, payload));
+        }
+    }
+}
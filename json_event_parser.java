@@ -0,0 +1,424 @@
+/*
+ * this file is part of bp-json-xml project.
+ *
+ * Copyright (C) 2025 Hesam Tavakoli
+ *
+ * bp-json-xml is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+
+// the JSON parser behind task1 and task3. it validates and reports each token to a handler instead of
+// building anything, so the task1 counter keeps no tree and the task3 builder makes tree_nodes directly.
+// the two tools accept different JSON, so the parser runs in one of two dialects:
+//   strict (task1): strings are printable ASCII with only \" and \\ escapes, and a '.' needs a digit after it
+//   lenient (task3): strings take any character and also the \/ \b \f \n \r \t escapes, and "1." is a number
+// in both, a number is [-][digits][.digits] with at least one digit and an integer has to fit in a long
+public class json_event_parser {
+
+    // receives one call per token, in document order. a string or key is passed as its escaped text
+    // s[start, end) between the quotes and a number as its text; unescape() turns a string into its value
+    interface handler {
+        void start_object() throws Exception;
+        void key(CharSequence s, int start, int end) throws Exception;
+        void end_object() throws Exception;
+        void start_array() throws Exception;
+        void end_array() throws Exception;
+        void string(CharSequence s, int start, int end) throws Exception;
+        void number(CharSequence s, int start, int end, boolean fraction) throws Exception;
+        // TRUE, FALSE, or null for null
+        void literal(Boolean value) throws Exception;
+    }
+
+    final CharSequence s;
+    final boolean strict;
+    int index;
+    // where each string ends, found ahead of the parser, or null to scan strings here
+    private structural_index strings;
+    // one entry per open array or object, true for objects
+    private boolean[] objects = new boolean[8];
+    private int depth;
+    // statistics for the flight recorder events
+    int values;
+    int max_depth;
+
+    json_event_parser(CharSequence s, boolean strict) {
+        this.s = s;
+        this.strict = strict;
+        this.index = 0;
+        this.strings = structural_index.of(s, strict);
+    }
+
+    void skip_whitespace() {
+        while(index < s.length() && Character.isWhitespace(s.charAt(index))){
+            index++;
+        }
+    }
+
+    private void expect_char(char expected) throws Exception {
+        skip_whitespace();
+        if(index >= s.length() || s.charAt(index) != expected){
+            throw new Exception("expected '" + expected + "' at position " + index);
+        }
+        index++;
+    }
+
+    // parses one value and stops after it. open arrays and objects are kept on an explicit stack instead
+    // of the call stack, so nesting depth is bounded by memory rather than by the thread's stack size
+    void parse_value(handler h) throws Exception {
+        while(true){
+            skip_whitespace();
+            if(index >= s.length()){
+                throw new Exception("unexpected end of input");
+            }
+            char c = s.charAt(index);
+            values++;
+            if(c == '{'){
+                index++;
+                h.start_object();
+                skip_whitespace();
+                if(index < s.length() && s.charAt(index) == '}'){
+                    index++;
+                    h.end_object();
+                } else {
+                    open(true);
+                    parse_key(h);
+                    continue;
+                }
+            } else if(c == '['){
+                index++;
+                h.start_array();
+                skip_whitespace();
+                if(index < s.length() && s.charAt(index) == ']'){
+                    index++;
+                    h.end_array();
+                } else {
+                    open(false);
+                    continue;
+                }
+            } else if(c == '"'){
+                int start = index + 1;
+                scan_string();
+                h.string(s, start, index - 1);
+            } else if(c == 't' || c == 'f' || c == 'n'){
+                h.literal(scan_literal());
+            } else if(c == '-' || c == '.' || Character.isDigit(c)){
+                parse_number(h);
+            } else {
+                throw new Exception("invalid character at position " + index + ": " + c);
+            }
+            // the value is complete: move on to the next member, closing every container it completes
+            while(true){
+                if(depth == 0){
+                    return;
+                }
+                boolean is_object = objects[depth - 1];
+                skip_whitespace();
+                if(index < s.length() && s.charAt(index) == ','){
+                    index++;
+                    if(is_object){
+                        parse_key(h);
+                    }
+                    break;
+                }
+                expect_char(is_object ? '}' : ']');
+                depth--;
+                if(is_object){
+                    h.end_object();
+                } else {
+                    h.end_array();
+                }
+            }
+        }
+    }
+
+    private void open(boolean object) {
+        if(depth == objects.length){
+            objects = Arrays.copyOf(objects, depth * 2);
+        }
+        objects[depth++] = object;
+        max_depth = Math.max(max_depth, depth);
+    }
+
+    // reads the key of the next member and the ':' after it
+    private void parse_key(handler h) throws Exception {
+        skip_whitespace();
+        if(index >= s.length() || s.charAt(index) != '"'){
+            throw new Exception("expected string key at position " + index);
+        }
+        int start = index + 1;
+        scan_string();
+        h.key(s, start, index - 1);
+        expect_char(':');
+    }
+
+    // moves past the string starting at index, including both quotes
+    private void scan_string() throws Exception {
+        if(strings != null){
+            index = strings.close_quote(index) + 1;
+            if(!strings.pays()){
+                strings = null;
+            }
+            return;
+        }
+        index++;
+        while(index < s.length()){
+            char c = s.charAt(index++);
+            if(c == '"'){
+                return;
+            } else if(c == '\\'){
+                if(index >= s.length()){
+                    throw new Exception("unexpected end of input in string escape");
+                }
+                char next = s.charAt(index++);
+                if(!escapable(next, strict)){
+                    throw new Exception("invalid escape character: \\" + next);
+                }
+            } else if(strict && (c < 32 || c > 126)){
+                throw new Exception("invalid character in string: " + c);
+            }
+        }
+        throw new Exception("unterminated string");
+    }
+
+    static boolean escapable(char c, boolean strict) {
+        return c == '"' || c == '\\' || !strict && "/bfnrt".indexOf(c) >= 0;
+    }
+
+    // the value of the escaped string s[start, end): every escape stands for the character after the
+    // backslash, which is what both tools have always stored
+    static String unescape(CharSequence s, int start, int end) {
+        StringBuilder sb = null;
+        int copied = start;
+        for(int i = start;i < end;i++){
+            if(s.charAt(i) == '\\'){
+                if(sb == null){
+                    sb = new StringBuilder(end - start);
+                }
+                sb.append(s, copied, i);
+                copied = ++i;
+            }
+        }
+        if(sb == null){
+            return s.subSequence(start, end).toString();
+        }
+        return sb.append(s, copied, end).toString();
+    }
+
+    private void parse_number(handler h) throws Exception {
+        int start = index;
+        if(s.charAt(index) == '-'){
+            index++;
+        }
+        boolean has_digit = false;
+        boolean has_dot = false;
+        int digits_start = index;
+        while(index < s.length() && Character.isDigit(s.charAt(index))){
+            has_digit = true;
+            index++;
+        }
+        if(index < s.length() && s.charAt(index) == '.'){
+            has_dot = true;
+            index++;
+            if(strict && (index >= s.length() || !Character.isDigit(s.charAt(index)))){
+                throw new Exception("expected digit after dot at position " + index);
+            }
+            while(index < s.length() && Character.isDigit(s.charAt(index))){
+                has_digit = true;
+                index++;
+            }
+        }
+        if(!has_digit){
+            throw new Exception("invalid number format at position " + start);
+        }
+        if(!has_dot && !fits_long(digits_start, index, start != digits_start)){
+            throw new Exception("number format error at position " + start);
+        }
+        h.number(s, start, index, has_dot);
+    }
+
+    // same range check Long.parseLong applies, without building the substring
+    private boolean fits_long(int start, int end, boolean negative) {
+        while(start < end - 1 && s.charAt(start) == '0'){
+            start++;
+        }
+        int len = end - start;
+        if(len != 19){
+            return len < 19;
+        }
+        String limit = negative ? "9223372036854775808" : "9223372036854775807";
+        for(int i = 0;i < len;i++){
+            char c = s.charAt(start + i);
+            char l = limit.charAt(i);
+            if(c != l){
+                return c < l;
+            }
+        }
+        return true;
+    }
+
+    private Boolean scan_literal() throws Exception {
+        if(starts_with("true")){
+            index += 4;
+            return Boolean.TRUE;
+        } else if(starts_with("false")){
+            index += 5;
+            return Boolean.FALSE;
+        } else if(starts_with("null")){
+            index += 4;
+            return null;
+        }
+        throw new Exception("invalid literal at position " + index);
+    }
+
+    private boolean starts_with(String prefix) {
+        if(index + prefix.length() > s.length()){
+            return false;
+        }
+        for(int i = 0;i < prefix.length();i++){
+            if(s.charAt(index + i) != prefix.charAt(i)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // stage 1 of parsing: the position of every quote that opens or closes a string, in order, with ~position
+    // for each character inside a string that the dialect rejects. the parser then finds the end of a string
+    // by reading the next entry instead of scanning its characters. characters are classified one block at a
+    // time as the parser asks for entries, so only one block of entries is held for any size of input.
+    // classify() here is the scalar reference; json_vector_index produces the same entries 64 characters at
+    // a time with jdk.incubator.vector and is used when it was compiled and the module is present
+    static class structural_index {
+        static final int block = 1 << 14;
+        static final int none = Integer.MIN_VALUE;
+        // with quotes closer together than this on average nearly every vector holds one and goes through
+        // the scalar classify() anyway, and the index costs more than it saves
+        static final int quote_spacing = 48;
+        private static final Constructor<? extends structural_index> vector = vector_constructor();
+
+        final CharSequence s;
+        final boolean strict;
+        private int[] entries = new int[256];
+        private int count;
+        private int cursor;
+        private int scanned; // input before this has been classified
+        private int first_block_entries = -1;
+        // carried from one character, and one block, to the next
+        boolean in_string;
+        boolean escaped; // the previous character is a backslash that is not itself escaped
+
+        structural_index(CharSequence s, boolean strict) {
+            this.s = s;
+            this.strict = strict;
+        }
+
+        // the vector index when it is available. otherwise null: classifying every character with the scalar
+        // classify() first costs more than the parser saves by jumping over strings, so it scans them itself
+        static structural_index of(CharSequence s, boolean strict) {
+            if(vector != null){
+                try {
+                    return vector.newInstance(s, strict);
+                } catch (ReflectiveOperationException e) {
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        // json_vector_index is compiled on its own with --add-modules jdk.incubator.vector, so it is looked up
+        // by name; without the class or the module at run time there is no index. the probe finds the end of
+        // one string, which loads the vector classes, and has to find it where it is
+        private static Constructor<? extends structural_index> vector_constructor() {
+            String pkg = json_event_parser.class.getPackageName();
+            String name = pkg.isEmpty() ? "json_vector_index" : pkg + ".json_vector_index";
+            try {
+                Constructor<? extends structural_index> c = Class.forName(name)
+                        .asSubclass(structural_index.class).getDeclaredConstructor(CharSequence.class, boolean.class);
+                if(c.newInstance("\"a\"", true).close_quote(0) != 2){
+                    return null;
+                }
+                return c;
+            } catch (Exception | LinkageError e) {
+                return null;
+            }
+        }
+
+        // the position of the quote that closes the string whose opening quote is at open
+        int close_quote(int open) throws Exception {
+            int e = next();
+            while(e != none && (e < 0 ? ~e : e) < open){
+                e = next();
+            }
+            if(e != open){
+                throw new Exception("string index out of step at position " + open);
+            }
+            e = next();
+            if(e == none){
+                throw new Exception("unterminated string");
+            }
+            if(e < 0){
+                throw new Exception("invalid character in string at position " + ~e);
+            }
+            return e;
+        }
+
+        // the next entry in order, or none after the last
+        int next() {
+            while(cursor == count){
+                if(scanned == s.length()){
+                    return none;
+                }
+                count = 0;
+                cursor = 0;
+                int to = (int) Math.min(s.length(), (long) scanned + block);
+                classify(scanned, to);
+                if(scanned == 0){
+                    first_block_entries = count;
+                }
+                scanned = to;
+            }
+            return entries[cursor++];
+        }
+
+        // false once the first block has shown the strings to be short; the parser then drops the index
+        // and scans strings itself from where it is
+        boolean pays() {
+            return first_block_entries < 0 || (long) first_block_entries * quote_spacing <= Math.min(s.length(), block);
+        }
+
+        final void emit(int entry) {
+            if(count == entries.length){
+                entries = Arrays.copyOf(entries, count * 2);
+            }
+            entries[count++] = entry;
+        }
+
+        // appends the entries for s[from, to)
+        void classify(int from, int to) {
+            for(int p = from;p < to;p++){
+                char c = s.charAt(p);
+                boolean esc = escaped;
+                escaped = c == '\\' && !esc;
+                if(c == '"' && !esc){
+                    in_string = !in_string;
+                    emit(p);
+                } else if(in_string && (strict && (c < 32 || c > 126) || esc && !escapable(c, strict))){
+                    emit(~p);
+                }
+            }
+        }
+    }
+}
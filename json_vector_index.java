@@ -0,0 +1,68 @@
+/*
+ * this file is part of bp-json-xml project.
+ *
+ * Copyright (C) 2025 Hesam Tavakoli
+ *
+ * bp-json-xml is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+// json_event_parser.structural_index with classify() done a vector of characters at a time. each vector is
+// compared against '"', '\\' and, in the strict dialect, the characters strings may not hold. a vector with none
+// of them and no escape carried in from before changes no state and has no entries, so it is skipped whole;
+// the rest, and the last partial vector, go through the scalar classify(), so the entries are exactly the
+// scalar ones. testing a mask with anyTrue() is intrinsic on JDK 17, where turning it into bits is not.
+// needs jdk.incubator.vector at compile and run time:
+//   javac --add-modules jdk.incubator.vector json_vector_index.java
+//   java --add-modules jdk.incubator.vector task1
+public class json_vector_index extends json_event_parser.structural_index {
+    private static final VectorSpecies<Short> species = ShortVector.SPECIES_PREFERRED;
+    private final char[] chars = new char[block];
+
+    json_vector_index(CharSequence s, boolean strict) {
+        super(s, strict);
+    }
+
+    @Override
+    void classify(int from, int to) {
+        int n = to - from;
+        if(s instanceof String){
+            ((String) s).getChars(from, to, chars, 0);
+        } else {
+            for(int i = 0;i < n;i++){
+                chars[i] = s.charAt(from + i);
+            }
+        }
+        int lanes = species.length();
+        int i = 0;
+        for(;i + lanes <= n;i += lanes){
+            ShortVector v = ShortVector.fromCharArray(species, chars, i);
+            VectorMask<Short> special = v.eq((short) '"').or(v.eq((short) '\\'));
+            if(strict){
+                // outside 32..126 when clamping to that range changes the char. chars above 0x7fff are negative
+                // shorts and clamp to 32. an ordered compare against a constant is not intrinsic on JDK 17
+                special = special.or(v.max((short) 32).min((short) 126).eq(v).not());
+            }
+            if(escaped || special.anyTrue()){
+                super.classify(from + i, from + i + lanes);
+            }
+        }
+        if(i < n){
+            super.classify(from + i, to);
+        }
+    }
+}
@@ -18,268 +18,592 @@
  */
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.InputStreamReader;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.*;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
 
 public class task1 {
 
-    private static abstract class json_node {
-        abstract int count();
+    // maps the first line of the file, matching what readLine() gives for stdin
+    static CharSequence map_first_line(String path) throws IOException {
+        try(FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)){
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE){
+                throw new IOException("file too large to map: " + path);
+            }
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int end = 0;
+            while(end < size && buf.get(end) != '\n' && buf.get(end) != '\r'){
+                end++;
+            }
+            return new mapped_chars(buf, 0, end);
+        }
     }
 
-    private static class json_primitive extends json_node {
-        Object value;
-        json_primitive(Object value) {
-            this.value = value;
+    // the document as one long[] with an entry per token, in document order: the token's type in the top byte
+    // and, for a key, string or number, the input offset of its first character below it, with the end
+    // offset in a second entry. nothing is decoded while the tape is built, and replay() hands the tokens to a
+    // handler as slices of the input, so strings and numbers are only turned into values by a consumer that
+    // reads them
+    private static class tape implements json_event_parser.handler {
+        static final int type_object = 1;
+        static final int type_object_end = 2;
+        static final int type_array = 3;
+        static final int type_array_end = 4;
+        static final int type_key = 5;
+        static final int type_string = 6;
+        static final int type_integer = 7;
+        static final int type_fraction = 8;
+        static final int type_true = 9;
+        static final int type_false = 10;
+        static final int type_null = 11;
+
+        private final CharSequence s;
+        private long[] entries;
+        private int size;
+        tape(CharSequence s) {
+            this.s = s;
+            this.entries = new long[16 + s.length() / 8];
         }
+
+        private void add(int type, long payload) {
+            if(size == entries.length){
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            entries[size++] = (long) type << 56 | payload;
+        }
+
+        private void add_slice(int type, int start, int end) {
+            add(type, start);
+            add(0, end);
+        }
+
         @Override
-        int count() {
-            return 1;
+        public void start_object() {
+            add(type_object, 0);
         }
-    }
 
-    private static class json_array_node extends json_node {
-        List<json_node> elements = new ArrayList<>();
         @Override
-        int count() {
-            int total = 1;
-            for(json_node node : elements){
-                total += node.count();
-            }
-            return total;
+        public void key(CharSequence s, int start, int end) {
+            add_slice(type_key, start, end);
         }
-    }
 
-    private static class json_object_node extends json_node {
-        Map<String, json_node> members = new HashMap<>();
         @Override
-        int count() {
-            int total = 1;
-            for(json_node node : members.values()){
-                total += node.count();
-            }
-            return total;
+        public void end_object() {
+            add(type_object_end, 0);
         }
-    }
 
-    private static class json_parser {
-        private String s;
-        private int index;
-        json_parser(String s) {
-            this.s = s;
-            this.index = 0;
+        @Override
+        public void start_array() {
+            add(type_array, 0);
         }
-        
-        private void skip_whitespace() {
-            while(index < s.length() && Character.isWhitespace(s.charAt(index))){
-                index++;
-            }
+
+        @Override
+        public void end_array() {
+            add(type_array_end, 0);
         }
-        
-        private char current_char() throws Exception {
-            if(index >= s.length()){
-                throw new Exception("unexpected end of input");
+
+        @Override
+        public void string(CharSequence s, int start, int end) {
+            add_slice(type_string, start, end);
+        }
+
+        @Override
+        public void number(CharSequence s, int start, int end, boolean fraction) {
+            add_slice(fraction ? type_fraction : type_integer, start, end);
+        }
+
+        @Override
+        public void literal(Boolean value) {
+            add(value == null ? type_null : value ? type_true : type_false, 0);
+        }
+
+        // hands every token on the tape to h, in document order
+        void replay(json_event_parser.handler h) throws Exception {
+            for(int i = 0;i < size;i++){
+                long e = entries[i];
+                int offset = (int) e;
+                switch((int) (e >>> 56)){
+                    case type_object:
+                        h.start_object();
+                        break;
+                    case type_object_end:
+                        h.end_object();
+                        break;
+                    case type_array:
+                        h.start_array();
+                        break;
+                    case type_array_end:
+                        h.end_array();
+                        break;
+                    case type_key:
+                        h.key(s, offset, (int) entries[++i]);
+                        break;
+                    case type_string:
+                        h.string(s, offset, (int) entries[++i]);
+                        break;
+                    case type_integer:
+                        h.number(s, offset, (int) entries[++i], false);
+                        break;
+                    case type_fraction:
+                        h.number(s, offset, (int) entries[++i], true);
+                        break;
+                    case type_true:
+                        h.literal(Boolean.TRUE);
+                        break;
+                    case type_false:
+                        h.literal(Boolean.FALSE);
+                        break;
+                    default:
+                        h.literal(null);
+                }
             }
-            return s.charAt(index);
         }
-        
-        private void expect_char(char expected) throws Exception {
-            skip_whitespace();
-            if(index >= s.length() || s.charAt(index) != expected){
-                throw new Exception("expected '" + expected + "' at position " + index);
+    }
+
+    private static class key_table {
+        int[] slots = new int[16];
+        int[] hashes = new int[8];
+        int[] key_start = new int[8];
+        int[] key_end = new int[8];
+        int[] counts = new int[8];
+        int[] slot_of = new int[8];
+        int size;
+
+        void clear() {
+            for(int i = 0;i < size;i++){
+                slots[slot_of[i]] = 0;
             }
-            index++;
+            size = 0;
         }
-        
-        json_node parse_value() throws Exception {
-            skip_whitespace();
-            if(index >= s.length()){
-                throw new Exception("empty input");
+
+        // stores the count for the key s[start, end) and returns the count it replaced, or -1 for a new key.
+        // keys are compared in their escaped form, which is unique because only \" and \\ are allowed
+        int put(CharSequence s, int start, int end, int count) {
+            int h = 0;
+            for(int i = start;i < end;i++){
+                h = 31 * h + s.charAt(i);
             }
-            char c = s.charAt(index);
-            if(c == '{'){
-                return parse_object();
-            } else if(c == '['){
-                return parse_array();
-            } else if(c == '"'){
-                return new json_primitive(parse_string());
-            } else if(c == 't' || c == 'f' || c == 'n'){
-                return new json_primitive(parse_literal());
-            } else if(c == '-' || c == '.' || Character.isDigit(c)){
-                return new json_primitive(parse_number());
-            } else {
-                throw new Exception("invalid character at position " + index + ": " + c);
+            h ^= (h >>> 16);
+            int mask = slots.length - 1;
+            int slot = h & mask;
+            while(slots[slot] != 0){
+                int e = slots[slot] - 1;
+                int len = key_end[e] - key_start[e];
+                if(hashes[e] == h && len == end - start && region_equals(s, key_start[e], start, len)){
+                    int old = counts[e];
+                    counts[e] = count;
+                    return old;
+                }
+                slot = (slot + 1) & mask;
             }
-        }
-        
-        private json_node parse_object() throws Exception {
-            expect_char('{');
-            skip_whitespace();
-            json_object_node obj = new json_object_node();
-            if(index < s.length() && s.charAt(index) == '}'){
-                index++;
-                return obj;
+            if(size == counts.length){
+                int cap = size * 2;
+                hashes = Arrays.copyOf(hashes, cap);
+                key_start = Arrays.copyOf(key_start, cap);
+                key_end = Arrays.copyOf(key_end, cap);
+                counts = Arrays.copyOf(counts, cap);
+                slot_of = Arrays.copyOf(slot_of, cap);
             }
-            while(true){
-                skip_whitespace();
-                if(index >= s.length() || s.charAt(index) != '"'){
-                    throw new Exception("expected string key at position " + index);
+            hashes[size] = h;
+            key_start[size] = start;
+            key_end[size] = end;
+            counts[size] = count;
+            slot_of[size] = slot;
+            slots[slot] = ++size;
+            if(size * 2 > slots.length){
+                rehash();
+            }
+            return -1;
+        }
+
+        private static boolean region_equals(CharSequence s, int a, int b, int len) {
+            for(int i = 0;i < len;i++){
+                if(s.charAt(a + i) != s.charAt(b + i)){
+                    return false;
                 }
-                String key = parse_string();
-                skip_whitespace();
-                expect_char(':');
-                json_node value = parse_value();
-                obj.members.put(key, value);
-                skip_whitespace();
-                if(index < s.length() && s.charAt(index) == ','){
-                    index++;
-                } else {
-                    break;
+            }
+            return true;
+        }
+
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            int mask = slots.length - 1;
+            for(int e = 0;e < size;e++){
+                int slot = hashes[e] & mask;
+                while(slots[slot] != 0){
+                    slot = (slot + 1) & mask;
                 }
+                slots[slot] = e + 1;
+                slot_of[e] = slot;
             }
-            skip_whitespace();
-            expect_char('}');
-            return obj;
-        }
-        
-        private json_node parse_array() throws Exception {
-            expect_char('[');
-            skip_whitespace();
-            json_array_node array = new json_array_node();
-            if(index < s.length() && s.charAt(index) == ']'){
-                index++;
-                return array;
+        }
+    }
+
+    // counts from the parser's events without building json_nodes. the only state kept is one key_table
+    // per open object, reused across objects of the same depth
+    private static class json_counter implements json_event_parser.handler {
+        private final CharSequence s;
+        // one entry per open array or object: its running total, and for objects the key_table and the
+        // key whose value is being counted. tables are reused by later containers at the same depth
+        private boolean[] objects = new boolean[8];
+        private int[] totals = new int[8];
+        private int[] key_starts = new int[8];
+        private int[] key_ends = new int[8];
+        private key_table[] tables = new key_table[8];
+        private int depth;
+        int total; // the count of the root value once it closes
+        // statistics for the flight recorder events
+        int duplicate_keys;
+        json_counter(CharSequence s) {
+            this.s = s;
+        }
+
+        @Override
+        public void start_object() {
+            open(true);
+        }
+
+        @Override
+        public void key(CharSequence s, int start, int end) {
+            key_starts[depth - 1] = start;
+            key_ends[depth - 1] = end;
+        }
+
+        @Override
+        public void end_object() {
+            add(totals[--depth]);
+        }
+
+        @Override
+        public void start_array() {
+            open(false);
+        }
+
+        @Override
+        public void end_array() {
+            add(totals[--depth]);
+        }
+
+        @Override
+        public void string(CharSequence s, int start, int end) {
+            add(1);
+        }
+
+        @Override
+        public void number(CharSequence s, int start, int end, boolean fraction) {
+            add(1);
+        }
+
+        @Override
+        public void literal(Boolean value) {
+            add(1);
+        }
+
+        // adds a finished value to its container. a repeated key replaces the count of the earlier member
+        private void add(int value) {
+            if(depth == 0){
+                total = value;
+                return;
             }
-            while(true){
-                json_node element = parse_value();
-                array.elements.add(element);
-                skip_whitespace();
-                if(index < s.length() && s.charAt(index) == ','){
-                    index++;
+            int top = depth - 1;
+            if(objects[top]){
+                int replaced = tables[top].put(s, key_starts[top], key_ends[top], value);
+                if(replaced < 0){
+                    totals[top] += value;
                 } else {
-                    break;
+                    totals[top] += value - replaced;
+                    duplicate_keys++;
                 }
+            } else {
+                totals[top] += value;
             }
-            skip_whitespace();
-            expect_char(']');
-            return array;
         }
-        
-        private String parse_string() throws Exception {
-            expect_char('"');
-            StringBuilder sb = new StringBuilder();
-            while(index < s.length()){
-                char c = s.charAt(index++);
-                if(c == '"'){
-                    return sb.toString();
-                } else if(c == '\\'){
-                    if(index >= s.length()){
-                        throw new Exception("unexpected end of input in string escape");
-                    }
-                    char next = s.charAt(index++);
-                    if(next == '"' || next == '\\'){
-                        sb.append(next);
-                    } else {
-                        throw new Exception("invalid escape character: \\" + next);
-                    }
-                } else if(c == '\n' || c == '\r'){
-                    throw new Exception("newline in string not allowed");
-                } else {
-                    if(c >= 32 && c <= 126){
-                        sb.append(c);
-                    } else {
-                        throw new Exception("invalid character in string: " + c);
-                    }
+
+        private void open(boolean object) {
+            if(depth == totals.length){
+                int cap = depth * 2;
+                objects = Arrays.copyOf(objects, cap);
+                totals = Arrays.copyOf(totals, cap);
+                key_starts = Arrays.copyOf(key_starts, cap);
+                key_ends = Arrays.copyOf(key_ends, cap);
+                tables = Arrays.copyOf(tables, cap);
+            }
+            objects[depth] = object;
+            totals[depth] = 1;
+            if(object){
+                if(tables[depth] == null){
+                    tables[depth] = new key_table();
                 }
+                tables[depth].clear();
             }
-            throw new Exception("unterminated string");
-        }
-        
-        private Number parse_number() throws Exception {
-            skip_whitespace();
-            int start = index;
-            boolean negative = false;
-            if(index < s.length() && s.charAt(index) == '-'){
-                negative = true;
-                index++;
+            depth++;
+        }
+    }
+
+    // feeds the whole input to h. a document is valid when it is a single object with nothing after it
+    private static boolean parse_document(json_event_parser parser, json_event_parser.handler h) {
+        CharSequence input = parser.s;
+        try {
+            parser.skip_whitespace();
+            if(parser.index >= input.length() || input.charAt(parser.index) != '{'){
+                return false;
             }
-            boolean has_digit = false;
-            boolean has_dot = false;
-            if(index < s.length() && s.charAt(index) == '.'){
-                has_dot = true;
-                index++;
+            parser.parse_value(h);
+            parser.skip_whitespace();
+            return parser.index == input.length();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    // parses the document onto a tape, then counts by replaying the tape into a json_counter
+    static int count_tree(CharSequence input) {
+        if(input == null){
+            return 0;
+        }
+        parse_event parse = new parse_event();
+        parse.begin();
+        json_event_parser parser = new json_event_parser(input, true);
+        tape doc = new tape(input);
+        boolean valid = parse_document(parser, doc);
+        parse.end();
+        json_counter counter = new json_counter(input);
+        int total = 0;
+        if(valid){
+            count_event count = new count_event();
+            count.begin();
+            try {
+                doc.replay(counter);
+                total = counter.total;
+            } catch (Exception e) {
+                total = 0;
             }
-            while(index < s.length() && Character.isDigit(s.charAt(index))){
-                has_digit = true;
-                index++;
+            count.end();
+            if(count.shouldCommit()){
+                count.nodes = total;
+                count.commit();
             }
-            if(index < s.length() && s.charAt(index) == '.'){
-                if(has_dot){
-                    throw new Exception("multiple dots in number at position " + index);
-                }
-                has_dot = true;
-                index++;
-                if(index >= s.length() || !Character.isDigit(s.charAt(index))){
-                    throw new Exception("expected digit after dot at position " + index);
-                }
-                while(index < s.length() && Character.isDigit(s.charAt(index))){
-                    has_digit = true;
-                    index++;
+        }
+        if(parse.shouldCommit()){
+            parse.bytes = input.length();
+            parse.nodes = parser.values;
+            parse.max_depth = parser.max_depth;
+            parse.duplicate_keys = counter.duplicate_keys;
+            parse.valid = valid;
+            parse.commit();
+        }
+        metrics.record(input.length(), parser.values, counter.duplicate_keys, valid);
+        return total;
+    }
+
+    static int count_stream(CharSequence input) {
+        if(input == null){
+            return 0;
+        }
+        stream_event event = new stream_event();
+        event.begin();
+        json_event_parser parser = new json_event_parser(input, true);
+        json_counter counter = new json_counter(input);
+        int total = parse_document(parser, counter) ? counter.total : 0;
+        event.end();
+        if(event.shouldCommit()){
+            event.bytes = input.length();
+            event.values = parser.values;
+            event.max_depth = parser.max_depth;
+            event.duplicate_keys = counter.duplicate_keys;
+            event.valid = total != 0;
+            event.commit();
+        }
+        metrics.record(input.length(), parser.values, counter.duplicate_keys, total != 0);
+        return total;
+    }
+
+    @Name("bp.task1.Read")
+    @Label("task1 Read")
+    @Category({"bp", "task1"})
+    static class read_event extends Event {
+        @Label("Bytes In")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("bp.task1.Parse")
+    @Label("task1 Parse")
+    @Category({"bp", "task1"})
+    static class parse_event extends Event {
+        @Label("Bytes In")
+        @DataAmount
+        long bytes;
+        @Label("Nodes Built")
+        int nodes;
+        @Label("Max Depth")
+        int max_depth;
+        @Label("Duplicate Keys Collapsed")
+        int duplicate_keys;
+        @Label("Valid")
+        boolean valid;
+    }
+
+    @Name("bp.task1.Count")
+    @Label("task1 Count")
+    @Category({"bp", "task1"})
+    static class count_event extends Event {
+        @Label("Nodes")
+        int nodes;
+    }
+
+    @Name("bp.task1.Stream")
+    @Label("task1 Stream Count")
+    @Category({"bp", "task1"})
+    static class stream_event extends Event {
+        @Label("Bytes In")
+        @DataAmount
+        long bytes;
+        @Label("Values")
+        int values;
+        @Label("Max Depth")
+        int max_depth;
+        @Label("Duplicate Keys Collapsed")
+        int duplicate_keys;
+        @Label("Valid")
+        boolean valid;
+    }
+
+    @Name("bp.task1.Counters")
+    @Label("task1 Counters")
+    @Category({"bp", "task1"})
+    @Period("1 s")
+    static class counters_event extends Event {
+        @Label("Documents")
+        long documents;
+        @Label("Invalid Documents")
+        long invalid;
+        @Label("Bytes In")
+        @DataAmount
+        long bytes;
+        @Label("Nodes")
+        long nodes;
+        @Label("Duplicate Keys Collapsed")
+        long duplicate_keys;
+    }
+
+    // the totals every document counted in this process adds to, published as counters_event
+    static final tool_metrics metrics = new tool_metrics(counters_event.class, m -> {
+        counters_event event = new counters_event();
+        event.documents = m.documents.sum();
+        event.invalid = m.invalid.sum();
+        event.bytes = m.bytes.sum();
+        event.nodes = m.nodes.sum();
+        event.duplicate_keys = m.duplicates.sum();
+        return event;
+    });
+
+    static final int batch_lines = 1024;
+    static final int batch_chars = 1 << 20;
+
+    // counts one newline-delimited document per line. lines are handed to the pool in chunks so the
+    // per-task overhead stays small next to the counting, and chunk results are written in input order
+    static void count_batch(BufferedReader br, Writer out) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "task1-batch");
+            t.setDaemon(true);
+            return t;
+        });
+        ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+        try {
+            List<String> chunk = new ArrayList<>();
+            int chunk_chars = 0;
+            String line;
+            while((line = br.readLine()) != null){
+                chunk.add(line);
+                chunk_chars += line.length();
+                if(chunk.size() >= batch_lines || chunk_chars >= batch_chars){
+                    pending.add(pool.submit(count_chunk(chunk)));
+                    chunk = new ArrayList<>();
+                    chunk_chars = 0;
+                    while(pending.size() > threads * 4){
+                        out.write(pending.poll().get());
+                    }
                 }
             }
-            if(!has_digit){
-                throw new Exception("invalid number format at position " + start);
+            if(!chunk.isEmpty()){
+                pending.add(pool.submit(count_chunk(chunk)));
             }
-            String num_str = s.substring(start, index);
-            try {
-                if(has_dot){
-                    return Double.parseDouble(num_str);
-                } else {
-                    return Long.parseLong(num_str);
-                }
-            } catch (NumberFormatException e) {
-                throw new Exception("number format error: " + num_str);
+            while(!pending.isEmpty()){
+                out.write(pending.poll().get());
             }
+            out.flush();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("batch counting failed", e);
+        } finally {
+            pool.shutdownNow();
         }
-        
-        private Object parse_literal() throws Exception {
-            skip_whitespace();
-            if(s.startsWith("true", index)){
-                index += 4;
-                return Boolean.TRUE;
-            } else if(s.startsWith("false", index)){
-                index += 5;
-                return Boolean.FALSE;
-            } else if(s.startsWith("null", index)){
-                index += 4;
-                return null;
-            } else {
-                throw new Exception("invalid literal at position " + index);
+    }
+
+    private static Callable<String> count_chunk(List<String> lines) {
+        return () -> {
+            StringBuilder sb = new StringBuilder();
+            for(String line : lines){
+                sb.append(count_stream(line)).append('\n');
             }
-        }
+            return sb.toString();
+        };
     }
 
     public static void main(String[] args) throws IOException {
-        BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
-        String input = br.readLine();
-        json_parser parser = new json_parser(input);
-        json_node root = null;
-        try {
-            root = parser.parse_value();
-            parser.skip_whitespace();
-            if(parser.index != input.length()){
-                System.out.println(0);
-                return;
+        // --stream counts in the same pass as parsing, without building a tape
+        // --batch counts every line of stdin or file as its own document, in parallel
+        // file reads the document from a memory-mapped file instead of stdin
+        boolean stream = false;
+        boolean batch = false;
+        String path = null;
+        for(String arg : args){
+            if(arg.equals("--stream")){
+                stream = true;
+            } else if(arg.equals("--batch")){
+                batch = true;
+            } else {
+                path = arg;
             }
-        } catch (Exception e) {
-            System.out.println(0);
+        }
+        if(batch){
+            metrics.register();
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    path != null ? Files.newInputStream(Paths.get(path)) : System.in));
+            count_batch(in, new BufferedWriter(new OutputStreamWriter(System.out)));
             return;
         }
-        if(!(root instanceof json_object_node)){
-            System.out.println(0);
+        read_event read = new read_event();
+        read.begin();
+        CharSequence input;
+        if(path != null){
+            input = map_first_line(path);
         } else {
-            System.out.println(root.count());
+            BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+            input = br.readLine();
+        }
+        read.end();
+        if(read.shouldCommit()){
+            read.bytes = input == null ? 0 : input.length();
+            read.commit();
         }
+        System.out.println(stream ? count_stream(input) : count_tree(input));
     }
 }
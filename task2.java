@@ -20,7 +20,20 @@
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
 
 public class task2 {
 
@@ -35,10 +48,32 @@ public class task2 {
         }
     }
 
-    private static class xml_parser {
-        String s;
+    static CharSequence map_file(String path) throws IOException {
+        try(FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)){
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE){
+                throw new IOException("file too large to map: " + path);
+            }
+            return new mapped_chars(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), 0, (int) size);
+        }
+    }
+
+    // splits the input into tokens without copying it. a token is its kind plus the [start, end) range of
+    // the tag name, the text or the quoted string (quotes included)
+    private static class xml_lexer {
+        static final int eof = 0;
+        static final int start_tag = 1;
+        static final int end_tag = 2;
+        static final int text = 3;
+        static final int quoted = 4;
+
+        final CharSequence s;
         int index;
-        xml_parser(String s) {
+        int kind;
+        int start;
+        int end;
+        int token_start; // the token's first character, which for a tag is its '<'
+        xml_lexer(CharSequence s) {
             this.s = s;
             this.index = 0;
         }
@@ -57,17 +92,38 @@ public class task2 {
             index++;
         }
 
-        private void expect(String str) throws Exception {
+        int next() throws Exception {
             skip_whitespace();
-            if(index + str.length() > s.length() || !s.substring(index, index + str.length()).equals(str)){
-                throw new Exception("expected \"" + str + "\" at position " + index);
+            token_start = index;
+            if(index >= s.length()){
+                kind = eof;
+                start = end = index;
+            } else if(s.charAt(index) == '<'){
+                index++;
+                kind = start_tag;
+                if(index < s.length() && s.charAt(index) == '/'){
+                    index++;
+                    kind = end_tag;
+                }
+                scan_tag_name();
+                expect_char('>');
+            } else if(s.charAt(index) == '"'){
+                kind = quoted;
+                scan_quoted_string();
+            } else {
+                kind = text;
+                start = index;
+                while(index < s.length() && s.charAt(index) != '<'){
+                    index++;
+                }
+                end = index;
             }
-            index += str.length();
+            return kind;
         }
 
-        private String parse_tag_name() throws Exception {
+        private void scan_tag_name() throws Exception {
             skip_whitespace();
-            int start = index;
+            start = index;
             while(index < s.length()){
                 char c = s.charAt(index);
                 if(Character.isWhitespace(c) || c == '>' || c == '/') break;
@@ -76,181 +132,918 @@ public class task2 {
             if(start == index){
                 throw new Exception("empty tag name at position " + index);
             }
-            return s.substring(start, index);
-        }
-
-        private String parse_text() {
-            int start = index;
-            while(index < s.length() && s.charAt(index) != '<'){
-                index++;
-            }
-            return s.substring(start, index);
+            end = index;
         }
 
-        private String parse_quoted_string() throws Exception {
-            expect_char('"');
-            StringBuilder sb = new StringBuilder();
+        private void scan_quoted_string() throws Exception {
+            start = index++;
             while(true){
                 if(index >= s.length()){
                     throw new Exception("unterminated quoted string");
                 }
-                char c = s.charAt(index);
+                char c = s.charAt(index++);
                 if(c == '"'){
-                    index++;
                     break;
                 } else if(c == '\\'){
-                    index++;
                     if(index >= s.length()){
                         throw new Exception("unterminated escape in quoted string");
                     }
-                    char next = s.charAt(index);
-                    if(next == '"' || next == '\\' || next == '<' || next == '>'){
-                        sb.append('\\').append(next);
-                    } else {
+                    char next = s.charAt(index++);
+                    if(next != '"' && next != '\\' && next != '<' && next != '>'){
                         throw new Exception("invalid escape sequence in quoted string");
                     }
-                    index++;
-                } else {
-                    sb.append(c);
-                    index++;
                 }
             }
-            return "\"" + sb.toString() + "\"";
+            end = index;
         }
 
-        xml_element parse_element() throws Exception {
-            skip_whitespace();
-            if(index >= s.length() || s.charAt(index) != '<'){
-                throw new Exception("expected '<' at position " + index);
-            }
-            expect_char('<');
-            String tag = parse_tag_name();
-            skip_whitespace();
-            expect_char('>');
-            skip_whitespace();
-            boolean has_child_element = false;
-            if(index < s.length() && s.charAt(index) == '<'){
-                if(index + 1 < s.length() && s.charAt(index + 1) != '/'){
-                    has_child_element = true;
+        boolean same_name(int name_start, int name_end) {
+            return region_equals(s, name_start, name_end, start, end);
+        }
+
+        // a text token between child elements may only hold what String.trim() removes
+        boolean is_blank() {
+            for(int i = start;i < end;i++){
+                if(s.charAt(i) > ' '){
+                    return false;
                 }
             }
-            int value_count = 0;
-            boolean is_primitive = false;
-            if(has_child_element){
-                List<xml_element> children = new ArrayList<>();
+            return true;
+        }
+
+        // checks the current text or quoted token as an XMLValue; an empty value is null
+        void check_primitive() throws Exception {
+            int value_start = start;
+            int value_end = end;
+            while(value_start < value_end && s.charAt(value_start) <= ' '){
+                value_start++;
+            }
+            while(value_end > value_start && s.charAt(value_end - 1) <= ' '){
+                value_end--;
+            }
+            if(value_start != value_end && !(is_valid_boolean(s, value_start, value_end)
+                    || is_valid_number(s, value_start, value_end) || is_valid_string(s, value_start, value_end))){
+                throw new Exception("invalid primitive value at position " + value_start);
+            }
+        }
+
+        String token_string() {
+            return s.subSequence(start, end).toString();
+        }
+    }
+
+    static boolean region_equals(CharSequence s, int a_start, int a_end, int b_start, int b_end) {
+        if(a_end - a_start != b_end - b_start){
+            return false;
+        }
+        for(int i = 0;i < a_end - a_start;i++){
+            if(s.charAt(a_start + i) != s.charAt(b_start + i)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class xml_parser {
+        xml_lexer lexer;
+        // statistics for the flight recorder events
+        int elements;
+        int max_depth;
+        int duplicate_tags;
+        xml_parser(CharSequence s) throws Exception {
+            this.lexer = new xml_lexer(s);
+            lexer.next();
+        }
+
+        // an element whose children are still being parsed
+        private static class open_element {
+            final String tag;
+            final int tag_start;
+            final int tag_end;
+            final List<xml_element> children = new ArrayList<>();
+            open_element(String tag, int tag_start, int tag_end) {
+                this.tag = tag;
+                this.tag_start = tag_start;
+                this.tag_end = tag_end;
+            }
+        }
+
+        // parses one element. open elements are kept on an explicit stack instead of the call stack,
+        // so nesting depth is bounded by memory rather than by the thread's stack size
+        xml_element parse_element() throws Exception {
+            ArrayDeque<open_element> open = new ArrayDeque<>();
+            while(true){
+                if(lexer.kind != xml_lexer.start_tag){
+                    throw new Exception("expected '<' at position " + lexer.start);
+                }
+                String tag = lexer.token_string();
+                int tag_start = lexer.start;
+                int tag_end = lexer.end;
+                lexer.next();
+                elements++;
+                xml_element done = null;
+                if(lexer.kind == xml_lexer.start_tag){
+                    open.push(new open_element(tag, tag_start, tag_end));
+                    max_depth = Math.max(max_depth, open.size());
+                } else {
+                    if(lexer.kind == xml_lexer.text || lexer.kind == xml_lexer.quoted){
+                        lexer.check_primitive();
+                        lexer.next();
+                    }
+                    close_tag(tag, tag_start, tag_end);
+                    done = new xml_element(tag, true, 2);
+                }
+                // hand finished elements to their parents until the next child starts
                 while(true){
-                    skip_whitespace();
-                    if(index < s.length() && s.charAt(index) == '<' && (index+1 < s.length() && s.charAt(index+1) == '/')){
+                    if(done != null){
+                        if(open.isEmpty()){
+                            return done;
+                        }
+                        open.peek().children.add(done);
+                    }
+                    open_element top = open.peek();
+                    while(lexer.kind == xml_lexer.text && lexer.is_blank()){
+                        lexer.next();
+                    }
+                    if(lexer.kind == xml_lexer.start_tag){
                         break;
                     }
-                    if(index < s.length() && s.charAt(index) != '<'){
-                        String txt = parse_text();
-                        if(!txt.trim().isEmpty()){
-                            throw new Exception("non-whitespace text in element <" + tag + ">");
-                        }
-                        continue;
+                    if(lexer.kind != xml_lexer.end_tag){
+                        throw new Exception("non-whitespace text in element <" + top.tag + ">");
                     }
-                    xml_element child = parse_element();
-                    children.add(child);
+                    open.pop();
+                    close_tag(top.tag, top.tag_start, top.tag_end);
+                    done = new xml_element(top.tag, false, 1 + value_count(top.children));
                 }
-                Map<String, List<xml_element>> groups = new LinkedHashMap<>();
-                for(xml_element child : children){
-                    groups.computeIfAbsent(child.tag, k -> new ArrayList<>()).add(child);
+            }
+        }
+
+        private int value_count(List<xml_element> children) {
+            Map<String, List<xml_element>> groups = new LinkedHashMap<>();
+            for(xml_element child : children){
+                groups.computeIfAbsent(child.tag, k -> new ArrayList<>()).add(child);
+            }
+            duplicate_tags += children.size() - groups.size();
+            int value_count = 0;
+            for(List<xml_element> group : groups.values()){
+                if(group.size() == 1){
+                    value_count += group.get(0).full_count;
+                } else {
+                    int group_count = group.get(0).full_count;
+                    for(int i = 1;i < group.size();i++){
+                        group_count += (group.get(i).full_count - 1);
+                    }
+                    value_count += group_count;
                 }
-                for(List<xml_element> group : groups.values()){
-                    if(group.size() == 1){
-                        value_count += group.get(0).full_count;
-                    } else {
-                        int group_count = group.get(0).full_count;
-                        for(int i = 1;i < group.size();i++){
-                            group_count += (group.get(i).full_count - 1);
+            }
+            return value_count;
+        }
+
+        private void close_tag(String tag, int tag_start, int tag_end) throws Exception {
+            if(lexer.kind != xml_lexer.end_tag){
+                throw new Exception("expected \"</\" at position " + lexer.start);
+            }
+            if(!lexer.same_name(tag_start, tag_end)){
+                throw new Exception("mismatched tag: expected </" + tag + ">, got </" + lexer.token_string() + ">");
+            }
+            lexer.next();
+        }
+    }
+
+    private static class tag_table {
+        int[] slots = new int[16];
+        int[] hashes = new int[8];
+        int[] tag_start = new int[8];
+        int[] tag_end = new int[8];
+        int[] counts = new int[8];
+        int[] slot_of = new int[8];
+        int size;
+
+        void clear() {
+            for(int i = 0;i < size;i++){
+                slots[slot_of[i]] = 0;
+            }
+            size = 0;
+        }
+
+        // folds a closed child into its tag group and returns what the element's value count grows by:
+        // the child's full_count for the first member of a group, full_count - 1 for every later one
+        int add(CharSequence s, int start, int end, int full_count) {
+            int h = 0;
+            for(int i = start;i < end;i++){
+                h = 31 * h + s.charAt(i);
+            }
+            h ^= (h >>> 16);
+            int mask = slots.length - 1;
+            int slot = h & mask;
+            while(slots[slot] != 0){
+                int e = slots[slot] - 1;
+                if(hashes[e] == h && region_equals(s, tag_start[e], tag_end[e], start, end)){
+                    counts[e] += full_count - 1;
+                    return full_count - 1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if(size == counts.length){
+                int cap = size * 2;
+                hashes = Arrays.copyOf(hashes, cap);
+                tag_start = Arrays.copyOf(tag_start, cap);
+                tag_end = Arrays.copyOf(tag_end, cap);
+                counts = Arrays.copyOf(counts, cap);
+                slot_of = Arrays.copyOf(slot_of, cap);
+            }
+            hashes[size] = h;
+            tag_start[size] = start;
+            tag_end[size] = end;
+            counts[size] = full_count;
+            slot_of[size] = slot;
+            slots[slot] = ++size;
+            if(size * 2 > slots.length){
+                rehash();
+            }
+            return full_count;
+        }
+
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            int mask = slots.length - 1;
+            for(int e = 0;e < size;e++){
+                int slot = hashes[e] & mask;
+                while(slots[slot] != 0){
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = e + 1;
+                slot_of[e] = slot;
+            }
+        }
+    }
+
+    // counts XMLValues without keeping children: each child's full_count is folded into its parent's
+    // tag_table as soon as the child closes, so memory depends on depth and on the tag variety of siblings.
+    // it accepts exactly what xml_parser accepts
+    private static class xml_counter {
+        xml_lexer lexer;
+        // one entry per open element that has children: its name range, the values counted so far and
+        // the tag_table of its child groups. tables are reused by later elements at the same depth
+        private int[] tag_starts = new int[8];
+        private int[] tag_ends = new int[8];
+        private int[] value_counts = new int[8];
+        private tag_table[] tables = new tag_table[8];
+        private int depth;
+        // statistics for the flight recorder events; children that join an existing tag group are
+        // elements - 1 - groups once the root has closed
+        int elements;
+        int max_depth;
+        int groups;
+        xml_counter(CharSequence s) throws Exception {
+            this.lexer = new xml_lexer(s);
+            lexer.next();
+        }
+
+        // counts one element, keeping open elements on the arrays above instead of the call stack
+        int count_element() throws Exception {
+            while(true){
+                if(lexer.kind != xml_lexer.start_tag){
+                    throw new Exception("expected '<' at position " + lexer.start);
+                }
+                int tag_start = lexer.start;
+                int tag_end = lexer.end;
+                lexer.next();
+                elements++;
+                int full_count = 0;
+                if(lexer.kind == xml_lexer.start_tag){
+                    open(tag_start, tag_end);
+                } else {
+                    if(lexer.kind == xml_lexer.text || lexer.kind == xml_lexer.quoted){
+                        lexer.check_primitive();
+                        lexer.next();
+                    }
+                    close_tag(tag_start, tag_end);
+                    full_count = 2;
+                }
+                // fold finished elements into their parents until the next child starts
+                while(true){
+                    if(full_count != 0){
+                        if(depth == 0){
+                            return full_count;
                         }
-                        value_count += group_count;
+                        value_counts[depth - 1] += tables[depth - 1].add(lexer.s, tag_start, tag_end, full_count);
                     }
+                    while(lexer.kind == xml_lexer.text && lexer.is_blank()){
+                        lexer.next();
+                    }
+                    if(lexer.kind == xml_lexer.start_tag){
+                        break;
+                    }
+                    if(lexer.kind != xml_lexer.end_tag){
+                        throw new Exception("non-whitespace text in element at position " + lexer.start);
+                    }
+                    depth--;
+                    groups += tables[depth].size;
+                    tag_start = tag_starts[depth];
+                    tag_end = tag_ends[depth];
+                    close_tag(tag_start, tag_end);
+                    full_count = 1 + value_counts[depth];
                 }
-                is_primitive = false;
+            }
+        }
+
+        private void open(int tag_start, int tag_end) {
+            if(depth == tables.length){
+                int cap = depth * 2;
+                tag_starts = Arrays.copyOf(tag_starts, cap);
+                tag_ends = Arrays.copyOf(tag_ends, cap);
+                value_counts = Arrays.copyOf(value_counts, cap);
+                tables = Arrays.copyOf(tables, cap);
+            }
+            if(tables[depth] == null){
+                tables[depth] = new tag_table();
+            }
+            tables[depth].clear();
+            tag_starts[depth] = tag_start;
+            tag_ends[depth] = tag_end;
+            value_counts[depth] = 0;
+            depth++;
+            max_depth = Math.max(max_depth, depth);
+        }
+
+        private void close_tag(int tag_start, int tag_end) throws Exception {
+            if(lexer.kind != xml_lexer.end_tag){
+                throw new Exception("expected \"</\" at position " + lexer.start);
+            }
+            if(!lexer.same_name(tag_start, tag_end)){
+                throw new Exception("mismatched tag at position " + lexer.start);
+            }
+            lexer.next();
+        }
+    }
+
+    static boolean is_valid_boolean(CharSequence s, int start, int end) {
+        int len = end - start;
+        if(len == 4){
+            return s.charAt(start) == 't' && s.charAt(start + 1) == 'r' && s.charAt(start + 2) == 'u' && s.charAt(start + 3) == 'e';
+        }
+        if(len == 5){
+            return s.charAt(start) == 'f' && s.charAt(start + 1) == 'a' && s.charAt(start + 2) == 'l'
+                    && s.charAt(start + 3) == 's' && s.charAt(start + 4) == 'e';
+        }
+        return false;
+    }
+
+    // -?((\d+\.\d*)|(\.\d+)|(\d+))
+    static boolean is_valid_number(CharSequence s, int start, int end) {
+        int i = start;
+        if(i < end && s.charAt(i) == '-'){
+            i++;
+        }
+        int int_digits = 0;
+        while(i < end && is_digit(s.charAt(i))){
+            i++;
+            int_digits++;
+        }
+        if(i == end){
+            return int_digits > 0;
+        }
+        if(s.charAt(i) != '.'){
+            return false;
+        }
+        i++;
+        int frac_digits = 0;
+        while(i < end && is_digit(s.charAt(i))){
+            i++;
+            frac_digits++;
+        }
+        return i == end && (int_digits > 0 || frac_digits > 0);
+    }
+
+    private static boolean is_digit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    static boolean is_valid_string(CharSequence s, int start, int end) {
+        if(end - start < 2)return false;
+        if(s.charAt(start) != '"' || s.charAt(end - 1) != '"')return false;
+        for(int i = start + 1;i < end - 1;i++){
+            char c = s.charAt(i);
+            if(c == '\\'){
+                i++;
+                if(i >= end - 1)return false;
+                char next = s.charAt(i);
+                if(next != '"' && next != '\\' && next != '<' && next != '>')return false;
             } else {
-                skip_whitespace();
-                String text;
-                if(index < s.length() && s.charAt(index) == '"'){
-                    text = parse_quoted_string();
-                } else {
-                    text = parse_text();
+                if(c == '"' || c == '<' || c == '>' || c == '\\'){
+                    return false;
+                }
+                if(c < 32 || c > 126)return false;
+            }
+        }
+        return true;
+    }
+
+    static int count(CharSequence input) {
+        if(is_blank(input)){
+            return 0;
+        }
+        parse_event event = new parse_event();
+        event.begin();
+        xml_parser parser = null;
+        int full_count = 0;
+        try{
+            parser = new xml_parser(input);
+            xml_element root = parser.parse_element();
+            if(parser.lexer.kind == xml_lexer.eof){
+                full_count = root.full_count;
+            }
+        } catch(Exception e){
+            full_count = 0;
+        }
+        event.end();
+        int elements = parser == null ? 0 : parser.elements;
+        int duplicates = parser == null ? 0 : parser.duplicate_tags;
+        if(event.shouldCommit()){
+            event.bytes = input.length();
+            event.elements = elements;
+            event.max_depth = parser == null ? 0 : parser.max_depth;
+            event.duplicate_tags = duplicates;
+            event.valid = full_count != 0;
+            event.commit();
+        }
+        metrics.record(input.length(), elements, duplicates, full_count != 0);
+        return full_count;
+    }
+
+    static int count_stream(CharSequence input) {
+        if(is_blank(input)){
+            return 0;
+        }
+        stream_event event = new stream_event();
+        event.begin();
+        xml_counter counter = null;
+        int full_count = 0;
+        try{
+            counter = new xml_counter(input);
+            full_count = counter.count_element();
+            if(counter.lexer.kind != xml_lexer.eof){
+                full_count = 0;
+            }
+        } catch(Exception e){
+            full_count = 0;
+        }
+        event.end();
+        int elements = counter == null ? 0 : counter.elements;
+        int duplicates = full_count == 0 ? 0 : elements - 1 - counter.groups;
+        if(event.shouldCommit()){
+            event.bytes = input.length();
+            event.elements = elements;
+            event.max_depth = counter == null ? 0 : counter.max_depth;
+            event.duplicate_tags = duplicates;
+            event.valid = full_count != 0;
+            event.commit();
+        }
+        metrics.record(input.length(), elements, duplicates, full_count != 0);
+        return full_count;
+    }
+
+    // --parallel: counts one document on several cores. the input is cut at start tags into chunks, each
+    // chunk is counted on its own by a chunk_counter, and the chunks are merged in order. the cut points are
+    // guesses: a chunk has to end exactly where the next one starts, and when one does not, or any chunk
+    // hits an error, the whole document is counted again by count_stream, so the answer is always its answer
+    static final int parallel_chunk = 1 << 20; // smallest chunk worth a task of its own
+
+    // the children of one element seen in one stretch of the input: their value count on their own, how
+    // many there are and their distinct tags. two stretches of one element merge by adding values and
+    // taking 1 back for every tag both saw, since the first member of that group was counted in full twice
+    static class group_summary {
+        int value;
+        int children;
+        final Set<String> tags = new HashSet<>();
+        boolean text; // blank text between the children, which is only allowed inside an element
+
+        void add(String tag, int full_count) {
+            value += tags.add(tag) ? full_count : full_count - 1;
+            children++;
+        }
+
+        void merge(group_summary other) {
+            value += other.value;
+            children += other.children;
+            for(String tag : other.tags){
+                if(!tags.add(tag)){
+                    value--;
                 }
-                String trimmed = text.trim();
-                if(!trimmed.isEmpty()){
-                    if(!(is_valid_boolean(trimmed) || is_valid_number(trimmed) || is_valid_string(trimmed))){
-                        throw new Exception("invalid primitive value in tag <" + tag + ">: " + trimmed);
+            }
+            text |= other.text;
+        }
+    }
+
+    // an element a chunk opens without closing, or closes without having opened, with the tag range of
+    // its start or end tag and the children the chunk saw
+    static class element_piece {
+        final int tag_start;
+        final int tag_end;
+        final group_summary children;
+        element_piece(int tag_start, int tag_end, group_summary children) {
+            this.tag_start = tag_start;
+            this.tag_end = tag_end;
+            this.children = children;
+        }
+    }
+
+    // xml_counter over the tokens that start in [begin, end). elements it both opens and closes are
+    // counted as xml_counter counts them; the rest become element_pieces. begin has to be the start of a
+    // start tag, or 0
+    private static class chunk_counter {
+        final xml_lexer lexer;
+        final int end;
+        private int[] tag_starts = new int[8];
+        private int[] tag_ends = new int[8];
+        private int[] value_counts = new int[8];
+        private tag_table[] tables = new tag_table[8];
+        private int depth;
+        // children at depth 0, of the element the chunk is inside of when they close
+        private final tag_table outer = new tag_table();
+        private int outer_value;
+        private int outer_children;
+        private boolean outer_text;
+        final List<element_piece> closed = new ArrayList<>();
+        final List<element_piece> opened = new ArrayList<>();
+        group_summary trailing; // depth 0 children after the last of closed
+        int stop; // where the first token past the chunk starts
+        int elements;
+        int groups;
+        int max_depth; // relative to the depth at begin, after the chunk closes elements it did not open
+        private int relative_depth;
+
+        chunk_counter(CharSequence s, int begin, int end) throws Exception {
+            this.lexer = new xml_lexer(s);
+            this.end = end;
+            lexer.index = begin;
+            lexer.next();
+        }
+
+        chunk_counter count() throws Exception {
+            while(lexer.kind != xml_lexer.eof && lexer.token_start < end){
+                if(lexer.kind == xml_lexer.start_tag){
+                    int tag_start = lexer.start;
+                    int tag_end = lexer.end;
+                    lexer.next();
+                    elements++;
+                    if(lexer.kind == xml_lexer.start_tag){
+                        open(tag_start, tag_end);
+                        continue;
                     }
+                    if(lexer.kind == xml_lexer.text || lexer.kind == xml_lexer.quoted){
+                        lexer.check_primitive();
+                        lexer.next();
+                    }
+                    close_tag(tag_start, tag_end);
+                    add(tag_start, tag_end, 2);
+                } else if(lexer.kind == xml_lexer.end_tag){
+                    if(depth > 0){
+                        depth--;
+                        relative_depth--;
+                        groups += tables[depth].size;
+                        close_tag(tag_starts[depth], tag_ends[depth]);
+                        add(tag_starts[depth], tag_ends[depth], 1 + value_counts[depth]);
+                    } else {
+                        closed.add(new element_piece(lexer.start, lexer.end, outer_summary()));
+                        relative_depth--;
+                        lexer.next();
+                    }
+                } else if(lexer.kind == xml_lexer.text && lexer.is_blank()){
+                    if(depth == 0){
+                        outer_text = true;
+                    }
+                    lexer.next();
+                } else {
+                    throw new Exception("non-whitespace text in element at position " + lexer.start);
                 }
-                is_primitive = true;
             }
-            skip_whitespace();
-            expect("</");
-            String end_tag = parse_tag_name();
-            if(!end_tag.equals(tag)){
-                throw new Exception("mismatched tag: expected </" + tag + ">, got </" + end_tag + ">");
+            stop = lexer.token_start;
+            trailing = outer_summary();
+            for(int i = 0;i < depth;i++){
+                opened.add(new element_piece(tag_starts[i], tag_ends[i], summary(tables[i], value_counts[i], -1, false)));
+            }
+            return this;
+        }
+
+        private void add(int tag_start, int tag_end, int full_count) {
+            if(depth > 0){
+                value_counts[depth - 1] += tables[depth - 1].add(lexer.s, tag_start, tag_end, full_count);
+            } else {
+                outer_value += outer.add(lexer.s, tag_start, tag_end, full_count);
+                outer_children++;
             }
-            skip_whitespace();
-            expect_char('>');
-            int full_count = is_primitive ? 2 : (1 + value_count);
-            return new xml_element(tag, is_primitive, full_count);
         }
 
-        private boolean is_valid_boolean(String s) {
-            return s.equals("true") || s.equals("false");
+        // the depth 0 children so far, which then start over
+        private group_summary outer_summary() {
+            group_summary g = summary(outer, outer_value, outer_children, outer_text);
+            outer.clear();
+            outer_value = 0;
+            outer_children = 0;
+            outer_text = false;
+            return g;
         }
 
-        private boolean is_valid_number(String s) {
-            return s.matches("^-?((\\d+\\.\\d*)|(\\.\\d+)|(\\d+))$");
+        // children is only needed at depth 0, where it tells one root from several
+        private group_summary summary(tag_table table, int value, int children, boolean text) {
+            group_summary g = new group_summary();
+            g.value = value;
+            g.children = children;
+            g.text = text;
+            for(int e = 0;e < table.size;e++){
+                g.tags.add(lexer.s.subSequence(table.tag_start[e], table.tag_end[e]).toString());
+            }
+            return g;
         }
 
-        private boolean is_valid_string(String s) {
-            if(s.length() < 2)return false;
-            if(s.charAt(0) != '"' || s.charAt(s.length() - 1) != '"')return false;
-            for(int i = 1;i < s.length() - 1;i++){
-                char c = s.charAt(i);
-                if(c == '\\'){
-                    i++;
-                    if(i >= s.length() - 1)return false;
-                    char next = s.charAt(i);
-                    if(next != '"' && next != '\\' && next != '<' && next != '>')return false;
-                } else {
-                    if(c == '"' || c == '<' || c == '>' || c == '\\'){
-                        return false;
+        private void open(int tag_start, int tag_end) {
+            if(depth == tables.length){
+                int cap = depth * 2;
+                tag_starts = Arrays.copyOf(tag_starts, cap);
+                tag_ends = Arrays.copyOf(tag_ends, cap);
+                value_counts = Arrays.copyOf(value_counts, cap);
+                tables = Arrays.copyOf(tables, cap);
+            }
+            if(tables[depth] == null){
+                tables[depth] = new tag_table();
+            }
+            tables[depth].clear();
+            tag_starts[depth] = tag_start;
+            tag_ends[depth] = tag_end;
+            value_counts[depth] = 0;
+            depth++;
+            relative_depth++;
+            max_depth = Math.max(max_depth, relative_depth);
+        }
+
+        private void close_tag(int tag_start, int tag_end) throws Exception {
+            if(lexer.kind != xml_lexer.end_tag){
+                throw new Exception("expected \"</\" at position " + lexer.start);
+            }
+            if(!lexer.same_name(tag_start, tag_end)){
+                throw new Exception("mismatched tag at position " + lexer.start);
+            }
+            lexer.next();
+        }
+    }
+
+    // chunk starts: 0, then the first '<' that opens a start tag at or after each even split of the input
+    static int[] chunk_starts(CharSequence s, int chunks) {
+        int[] starts = new int[chunks + 1];
+        int n = 1;
+        for(int c = 1;c < chunks;c++){
+            int i = Math.max((int) ((long) s.length() * c / chunks), starts[n - 1] + 1);
+            while(i + 1 < s.length() && !(s.charAt(i) == '<' && s.charAt(i + 1) != '/' && s.charAt(i - 1) != '\\')){
+                i++;
+            }
+            if(i + 1 >= s.length()){
+                break;
+            }
+            starts[n++] = i;
+        }
+        starts[n++] = s.length();
+        return Arrays.copyOf(starts, n);
+    }
+
+    static int count_parallel(CharSequence input) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int chunks = (int) Math.min(threads * 4L, input.length() / parallel_chunk);
+        if(chunks < 2 || is_blank(input)){
+            return count_stream(input);
+        }
+        parallel_event event = new parallel_event();
+        event.begin();
+        int[] starts = chunk_starts(input, chunks);
+        List<Callable<chunk_counter>> tasks = new ArrayList<>();
+        for(int c = 0;c + 1 < starts.length;c++){
+            int begin = starts[c];
+            int end = starts[c + 1];
+            tasks.add(() -> new chunk_counter(input, begin, end).count());
+        }
+        List<chunk_counter> counted = new ArrayList<>();
+        try{
+            for(Future<chunk_counter> f : ForkJoinPool.commonPool().invokeAll(tasks)){
+                counted.add(f.get());
+            }
+        } catch(InterruptedException | ExecutionException e){
+            counted = null;
+        }
+        for(int c = 0;counted != null && c + 1 < counted.size();c++){
+            if(counted.get(c).stop != starts[c + 1]){
+                counted = null;
+            }
+        }
+        if(counted == null){
+            event.end();
+            if(event.shouldCommit()){
+                event.bytes = input.length();
+                event.chunks = starts.length - 1;
+                event.fallback = true;
+                event.commit();
+            }
+            return count_stream(input);
+        }
+        chunk_merge merged = new chunk_merge(input);
+        int full_count = merged.merge(counted);
+        int elements = 0;
+        int groups = merged.groups;
+        for(chunk_counter c : counted){
+            elements += c.elements;
+            groups += c.groups;
+        }
+        int duplicates = full_count == 0 ? 0 : elements - 1 - groups;
+        event.end();
+        if(event.shouldCommit()){
+            event.bytes = input.length();
+            event.chunks = counted.size();
+            event.elements = elements;
+            event.max_depth = merged.max_depth;
+            event.duplicate_tags = duplicates;
+            event.valid = full_count != 0;
+            event.commit();
+        }
+        metrics.record(input.length(), elements, duplicates, full_count != 0);
+        return full_count;
+    }
+
+    // replays the chunks' pieces in order on a stack of open elements whose bottom stands for the document.
+    // a piece that closes an element merges into it and the finished element joins its parent's children;
+    // the document must end up with exactly one child, the root, and no text
+    private static class chunk_merge {
+        final CharSequence s;
+        private final ArrayDeque<element_piece> open = new ArrayDeque<>();
+        private final element_piece document = new element_piece(0, 0, new group_summary());
+        int groups; // of the elements no one chunk counted whole
+        int max_depth;
+
+        chunk_merge(CharSequence s) {
+            this.s = s;
+            open.push(document);
+        }
+
+        int merge(List<chunk_counter> counted) {
+            for(chunk_counter c : counted){
+                max_depth = Math.max(max_depth, open.size() - 1 + c.max_depth);
+                for(element_piece p : c.closed){
+                    element_piece e = open.pop();
+                    if(e == document || !region_equals(s, e.tag_start, e.tag_end, p.tag_start, p.tag_end)){
+                        return 0;
                     }
-                    if(c < 32 || c > 126)return false;
+                    e.children.merge(p.children);
+                    groups += e.children.tags.size();
+                    open.peek().children.add(s.subSequence(e.tag_start, e.tag_end).toString(), 1 + e.children.value);
+                }
+                open.peek().children.merge(c.trailing);
+                for(element_piece p : c.opened){
+                    open.push(p);
                 }
             }
-            return true;
+            if(open.size() != 1 || document.children.children != 1 || document.children.text){
+                return 0;
+            }
+            return document.children.value;
+        }
+    }
+
+    @Name("bp.task2.Read")
+    @Label("task2 Read")
+    @Category({"bp", "task2"})
+    static class read_event extends Event {
+        @Label("Bytes In")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("bp.task2.Parse")
+    @Label("task2 Parse")
+    @Category({"bp", "task2"})
+    static class parse_event extends Event {
+        @Label("Bytes In")
+        @DataAmount
+        long bytes;
+        @Label("Elements")
+        int elements;
+        @Label("Max Depth")
+        int max_depth;
+        @Label("Duplicate Tags Grouped")
+        int duplicate_tags;
+        @Label("Valid")
+        boolean valid;
+    }
+
+    @Name("bp.task2.Stream")
+    @Label("task2 Stream Count")
+    @Category({"bp", "task2"})
+    static class stream_event extends Event {
+        @Label("Bytes In")
+        @DataAmount
+        long bytes;
+        @Label("Elements")
+        int elements;
+        @Label("Max Depth")
+        int max_depth;
+        @Label("Duplicate Tags Grouped")
+        int duplicate_tags;
+        @Label("Valid")
+        boolean valid;
+    }
+
+    @Name("bp.task2.Parallel")
+    @Label("task2 Parallel Count")
+    @Category({"bp", "task2"})
+    static class parallel_event extends Event {
+        @Label("Bytes In")
+        @DataAmount
+        long bytes;
+        @Label("Chunks")
+        int chunks;
+        @Label("Elements")
+        int elements;
+        @Label("Max Depth")
+        int max_depth;
+        @Label("Duplicate Tags Grouped")
+        int duplicate_tags;
+        @Label("Valid")
+        boolean valid;
+        @Label("Fell Back To One Thread")
+        boolean fallback;
+    }
+
+    @Name("bp.task2.Counters")
+    @Label("task2 Counters")
+    @Category({"bp", "task2"})
+    @Period("1 s")
+    static class counters_event extends Event {
+        @Label("Documents")
+        long documents;
+        @Label("Invalid Documents")
+        long invalid;
+        @Label("Bytes In")
+        @DataAmount
+        long bytes;
+        @Label("Elements")
+        long elements;
+        @Label("Duplicate Tags Grouped")
+        long duplicate_tags;
+    }
+
+    // the totals every document counted in this process adds to, published as counters_event
+    static final tool_metrics metrics = new tool_metrics(counters_event.class, m -> {
+        counters_event event = new counters_event();
+        event.documents = m.documents.sum();
+        event.invalid = m.invalid.sum();
+        event.bytes = m.bytes.sum();
+        event.elements = m.nodes.sum();
+        event.duplicate_tags = m.duplicates.sum();
+        return event;
+    });
+
+    private static boolean is_blank(CharSequence s) {
+        for(int i = 0;i < s.length();i++){
+            if(s.charAt(i) > ' '){
+                return false;
+            }
         }
+        return true;
     }
 
     public static void main(String[] args) throws IOException {
-        BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
-        StringBuilder sb = new StringBuilder();
-        String line;
-        while((line = br.readLine()) != null){
-            sb.append(line).append("\n");
-        }
-        String input = sb.toString();
-        if(input.trim().isEmpty()){
-            System.out.println(0);
-            return;
-        }
-        xml_parser parser = new xml_parser(input);
-        xml_element root;
-        try{
-            root = parser.parse_element();
-            parser.skip_whitespace();
-            if(parser.index != parser.s.length()){
-                System.out.println(0);
-                return;
+        // --stream counts without keeping child elements
+        // --parallel counts chunks of the document on all cores and merges them
+        // file reads the document from a memory-mapped file instead of stdin
+        boolean stream = false;
+        boolean parallel = false;
+        String path = null;
+        for(String arg : args){
+            if(arg.equals("--stream")){
+                stream = true;
+            } else if(arg.equals("--parallel")){
+                parallel = true;
+            } else {
+                path = arg;
             }
-        } catch(Exception e){
-            System.out.println(0);
-            return;
         }
-        System.out.println(root.full_count);
+        read_event read = new read_event();
+        read.begin();
+        CharSequence input;
+        if(path != null){
+            input = map_file(path);
+        } else {
+            BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+            StringBuilder sb = new StringBuilder();
+            String line;
+            while((line = br.readLine()) != null){
+                sb.append(line).append("\n");
+            }
+            input = sb.toString();
+        }
+        read.end();
+        if(read.shouldCommit()){
+            read.bytes = input.length();
+            read.commit();
+        }
+        System.out.println(parallel ? count_parallel(input) : stream ? count_stream(input) : count(input));
     }
 }
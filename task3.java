@@ -17,238 +17,427 @@
  * along with this program. If not, see <https://www.gnu.org/licenses/>.
  */
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
 
 public class task3 {
 
     static final int inf = 1000000;
 
     static class tree_node {
-        String name;
+        int name; // symbol_table id
         boolean is_leaf;
+        boolean is_array; // array children keep index order, object children are sorted by name
         String value;
         List<tree_node> children;
+        // structural hash of the subtree and its node count, set by seal() once the children are final.
+        // the hash covers the normalized value and the children with their names, but not the node's own
+        // name, so the same subtree under another name still matches
+        long hash;
+        int size;
 
-        tree_node(String name, boolean is_leaf, String value) {
+        tree_node(int name, boolean is_leaf, String value) {
             this.name = name;
             this.is_leaf = is_leaf;
             this.value = value;
             this.children = new ArrayList<>();
         }
+
+        tree_node seal(symbol_table symbols) {
+            if(is_leaf) {
+                hash = leaf_hash(value);
+                size = 1;
+            } else {
+                long h = node_hash;
+                int total = 1;
+                for(tree_node child : children) {
+                    h = child_hash(h, symbols.hash(child.name), child.hash);
+                    total += child.size;
+                }
+                hash = h;
+                size = total;
+            }
+            return this;
+        }
     }
 
-    static class json_parser {
-        String s;
-        int index;
+    // maps every distinct node name to an int, so repeated names such as "0" or "id_" are stored once.
+    // while trees are built ids are handed out in first-seen order; freeze() renumbers them by alphabetical
+    // rank and finish() moves each tree over, after which comparing and sorting names is int work.
+    // every tree taking part in one diff has to be built against the same table
+    static class symbol_table {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final Map<String, Integer> key_ids = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+        private int[] index_ids = new int[16];
+        private int indexes = 0;
+        private int[] rank;
+        private long[] hashes;
 
-        json_parser(String s) {
-            this.s = s;
-            this.index = 0;
+        int intern(String name) {
+            Integer id = ids.get(name);
+            if(id == null) {
+                id = names.size();
+                ids.put(name, id);
+                names.add(name);
+            }
+            return id;
         }
 
-        void skip_whitespace() throws Exception {
-            while(index < s.length() && Character.isWhitespace(s.charAt(index))) {
-                index++;
+        // id of key + "_", the name of an object member
+        int key(String key) {
+            Integer id = key_ids.get(key);
+            if(id == null) {
+                id = intern(key + "_");
+                key_ids.put(key, id);
             }
+            return id;
         }
 
-        Object parse_value() throws Exception {
-            skip_whitespace();
-            if(index >= s.length())
-                throw new Exception("unexpected end");
-            char c = s.charAt(index);
-            if(c == '{') 
-                return parse_object();
-            if(c == '[') 
-                return parse_array();
-            if(c == '"') 
-                return parse_string();
-            if(c == 't' || c == 'f' || c == 'n') 
-                return parse_literal();
-            if(c == '-' || Character.isDigit(s.charAt(index)) || c == '.')
-                return parse_number();
-            throw new Exception("unexpected character: " + c);
-        }
-
-        Map<String, Object> parse_object() throws Exception {
-            Map<String, Object> map = new LinkedHashMap<>();
-            index++; // skip '{'
-            skip_whitespace();
-            if(index < s.length() && s.charAt(index) == '}') {
-                index++;
-                return map;
+        // id of the i-th array element's name
+        int index(int i) {
+            while(indexes <= i) {
+                if(indexes == index_ids.length)
+                    index_ids = Arrays.copyOf(index_ids, indexes * 2);
+                index_ids[indexes] = intern(String.valueOf(indexes));
+                indexes++;
             }
-            while(true) {
-                skip_whitespace();
-                if(s.charAt(index) != '"')
-                    throw new Exception("expected '\"'");
-                String key = parse_string();
-                skip_whitespace();
-                if(index >= s.length() || s.charAt(index) != ':')
-                    throw new Exception("expected ':'");
-                index++; // skip ':'
-                Object val = parse_value();
-                map.put(key, val);
-                skip_whitespace();
-                if(index >= s.length())
-                    throw new Exception("expected '}'");
-                char ch = s.charAt(index);
-                index++;
-                if(ch == '}') {
-                    break;
-                }
-                if(ch != ',')
-                    throw new Exception("expected ','");
-            }
-            return map;
+            return index_ids[i];
         }
 
-        List<Object> parse_array() throws Exception {
-            List<Object> list = new ArrayList<>();
-            index++; // skip '['
-            skip_whitespace();
-            if(index < s.length() && s.charAt(index) == ']') {
-                index++;
-                return list;
+        void freeze() {
+            Integer[] order = new Integer[names.size()];
+            for(int i = 0; i < order.length; i++) {
+                order[i] = i;
             }
-            while(true) {
-                Object val = parse_value();
-                list.add(val);
-                skip_whitespace();
-                if(index >= s.length())
-                    throw new Exception("expected ']'");
-                char ch = s.charAt(index);
-                index++;
-                if(ch == ']') {
-                    break;
-                }
-                if(ch != ',')
-                    throw new Exception("expected ','");
+            Arrays.sort(order, Comparator.comparing(names::get));
+            rank = new int[order.length];
+            hashes = new long[order.length];
+            List<String> sorted = new ArrayList<>(order.length);
+            for(int i = 0; i < order.length; i++) {
+                rank[order[i]] = i;
+                hashes[i] = string_hash(names.get(order[i]));
+                sorted.add(names.get(order[i]));
             }
-            return list;
+            names.clear();
+            names.addAll(sorted);
+            ids.clear();
+            key_ids.clear();
+            indexes = 0;
         }
 
-        String parse_string() throws Exception {
-            StringBuilder sb = new StringBuilder();
-            index++; // skip opening quote
-            while(true) {
-                if(index >= s.length())
-                    throw new Exception("unterminated string");
-                char c = s.charAt(index++);
-                if(c == '"') {
-                    break;
-                }
-                if(c == '\\') {
-                    if(index >= s.length())
-                        throw new Exception("unterminated escape");
-                    char next = s.charAt(index++);
-                    if(next == '"' || next == '\\' || next == '/' || next == 'b' ||
-                       next == 'f' || next == 'n' || next == 'r' || next == 't') {
-                        sb.append(next);
-                    } else {
-                        throw new Exception("invalid escape");
-                    }
-                } else {
-                    sb.append(c);
-                }
-            }
-            return sb.toString();
+        int size() {
+            return names.size();
         }
 
-        Object parse_number() throws Exception {
-            int start = index;
-            if(s.charAt(index) == '-')
-                index++;
-            while(index < s.length() && Character.isDigit(s.charAt(index))) {
-                index++;
+        // the methods below take alphabetical ids and are only valid after freeze()
+        String name(int id) {
+            return names.get(id);
+        }
+
+        long hash(int id) {
+            return hashes[id];
+        }
+    }
+
+    // renumbers a tree built against symbols to the frozen, alphabetical ids, sorts object children by
+    // name and seals every node. nodes are renamed in pre-order and sealed in reverse pre-order, which
+    // puts every child before its parent without recursing. returns the number of leaves below the root,
+    // which bounded_diff() takes
+    static int finish(tree_node root, symbol_table symbols) {
+        finish_event event = new finish_event();
+        event.begin();
+        int sorted = 0;
+        int leaves = 0;
+        List<tree_node> order = new ArrayList<>();
+        ArrayDeque<tree_node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while(!stack.isEmpty()) {
+            tree_node node = stack.pop();
+            node.name = symbols.rank[node.name];
+            order.add(node);
+            for(tree_node child : node.children) {
+                stack.push(child);
             }
-            if(index < s.length() && s.charAt(index) == '.') {
-                index++;
-                while(index < s.length() && Character.isDigit(s.charAt(index))) {
-                    index++;
-                }
+        }
+        for(int i = order.size() - 1; i >= 0; i--) {
+            tree_node node = order.get(i);
+            if(!node.is_array && node.children.size() > 1) {
+                node.children.sort((x, y) -> Integer.compare(x.name, y.name));
+                sorted++;
             }
-            String num_str = s.substring(start, index);
-            if(num_str.indexOf('.') >= 0)
-                return Double.parseDouble(num_str);
-            return Long.parseLong(num_str);
+            node.seal(symbols);
+            if(node.is_leaf && node != root)
+                leaves++;
+        }
+        event.end();
+        if(event.shouldCommit()) {
+            event.nodes = root.size;
+            event.sorted_lists = sorted;
+            event.commit();
+        }
+        return leaves;
+    }
+
+    // 64-bit FNV-1a
+    static long string_hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for(int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // the hash of a leaf, and of an inner node as each child is appended to it starting from node_hash.
+    // seal() and the --external spill files both hash with these, so their subtrees compare equal
+    static final long node_hash = 0x6e6f646500000000L;
+
+    static long leaf_hash(String value) {
+        return mix(string_hash(normalize(value)) ^ 0x6c65616600000000L);
+    }
+
+    static long child_hash(long h, long name_hash, long hash) {
+        return mix(mix(h ^ name_hash) ^ hash);
+    }
+
+    // splitmix64 finalizer
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    // builds tree_nodes from the parser's events, without a map or list per object in between. a member
+    // becomes a node named key + "_" and an array element one named by its index; empty objects and arrays
+    // are the leaves "{}" and "[]". a repeated key replaces the earlier member in its place
+    static class json_builder implements json_event_parser.handler {
+        private final symbol_table symbols;
+        private final int root_name;
+        // one entry per open array or object: its node, and for objects the members read so far and the
+        // key of the one being read. tables are reused by later objects at the same depth
+        private tree_node[] nodes = new tree_node[8];
+        private member_table[] tables = new member_table[8];
+        private int[] keys = new int[8];
+        private int depth;
+        tree_node root;
+        // statistics for the flight recorder events
+        int duplicate_keys;
+
+        json_builder(symbol_table symbols) {
+            this.symbols = symbols;
+            this.root_name = symbols.intern("");
+        }
+
+        @Override
+        public void start_object() {
+            open(add(new tree_node(next_name(), false, null)), true);
+        }
+
+        @Override
+        public void key(CharSequence s, int start, int end) {
+            keys[depth - 1] = symbols.key(json_event_parser.unescape(s, start, end));
+        }
+
+        @Override
+        public void end_object() {
+            close("{}");
+        }
+
+        @Override
+        public void start_array() {
+            tree_node node = new tree_node(next_name(), false, null);
+            node.is_array = true;
+            open(add(node), false);
+        }
+
+        @Override
+        public void end_array() {
+            close("[]");
         }
 
-        Object parse_literal() throws Exception {
-            if(s.startsWith("true", index)) {
-                index += 4;
-                return Boolean.TRUE;
+        @Override
+        public void string(CharSequence s, int start, int end) {
+            add(new tree_node(next_name(), true, json_event_parser.unescape(s, start, end)));
+        }
+
+        @Override
+        public void number(CharSequence s, int start, int end, boolean fraction) {
+            String num_str = s.subSequence(start, end).toString();
+            String value = fraction ? Double.toString(Double.parseDouble(num_str)) : Long.toString(Long.parseLong(num_str));
+            add(new tree_node(next_name(), true, value));
+        }
+
+        @Override
+        public void literal(Boolean value) {
+            add(new tree_node(next_name(), true, value == null ? "" : value.toString()));
+        }
+
+        // the name of the value about to be added to the innermost open container
+        private int next_name() {
+            if(depth == 0)
+                return root_name;
+            tree_node parent = nodes[depth - 1];
+            return parent.is_array ? symbols.index(parent.children.size()) : keys[depth - 1];
+        }
+
+        private tree_node add(tree_node node) {
+            if(depth == 0) {
+                root = node;
+                return node;
             }
-            if(s.startsWith("false", index)) {
-                index += 5;
-                return Boolean.FALSE;
+            tree_node parent = nodes[depth - 1];
+            if(parent.is_array) {
+                parent.children.add(node);
+                return node;
             }
-            if(s.startsWith("null", index)) {
-                index += 4;
-                return null;
+            int replaced = tables[depth - 1].put(keys[depth - 1], parent.children.size());
+            if(replaced < 0) {
+                parent.children.add(node);
+            } else {
+                parent.children.set(replaced, node);
+                duplicate_keys++;
             }
-            throw new Exception("invalid literal");
+            return node;
         }
-    }
 
-    static tree_node build_tree_from_json(Object json, String name) {
-        if(json instanceof Map) {
-            Map<String, Object> map = (Map<String, Object>) json;
-            if(map.isEmpty()) {
-                return new tree_node(name, true, "{}");
-            } else {
-                tree_node node = new tree_node(name, false, null);
-                List<tree_node> children = new ArrayList<>();
-                for(Map.Entry<String, Object> e : map.entrySet()) {
-                    String child_name = e.getKey() + "_";
-                    children.add(build_tree_from_json(e.getValue(), child_name));
-                }
-                Collections.sort(children, Comparator.comparing(n -> n.name));
-                node.children = children;
-                return node;
+        private void open(tree_node node, boolean object) {
+            if(depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, depth * 2);
+                tables = Arrays.copyOf(tables, depth * 2);
+                keys = Arrays.copyOf(keys, depth * 2);
             }
-        } else if(json instanceof List) {
-            List<Object> list = (List<Object>) json;
-            if(list.isEmpty()) {
-                return new tree_node(name, true, "[]");
+            nodes[depth] = node;
+            if(object) {
+                if(tables[depth] == null)
+                    tables[depth] = new member_table();
+                tables[depth].clear();
+            }
+            depth++;
+        }
+
+        private void close(String empty) {
+            tree_node node = nodes[--depth];
+            nodes[depth] = null;
+            if(node.children.isEmpty()) {
+                node.is_leaf = true;
+                node.is_array = false;
+                node.value = empty;
             } else {
-                tree_node node = new tree_node(name, false, null);
-                List<tree_node> children = new ArrayList<>();
-                for(int i = 0; i < list.size(); i++) {
-                    String child_name = String.valueOf(i);
-                    children.add(build_tree_from_json(list.get(i), child_name));
-                }
-                node.children = children;
-                return node;
+                ((ArrayList<tree_node>) node.children).trimToSize();
             }
-        } else {
-            String val = (json == null ? "" : json.toString());
-            return new tree_node(name, true, val);
         }
     }
 
-    static class xml_element_raw {
-        String tag;
-        String text;
-        List<xml_element_raw> children;
+    // the members of one open object, from key id to their index among its children
+    static class member_table {
+        private int[] slots = new int[16]; // key id + 1, or 0 for a free slot
+        private int[] indexes = new int[16];
+        private int[] used = new int[8];
+        private int size;
 
-        xml_element_raw(String tag) {
-            this.tag = tag;
-            this.text = "";
-            this.children = new ArrayList<>();
+        void clear() {
+            for(int i = 0; i < size; i++) {
+                slots[used[i]] = 0;
+            }
+            size = 0;
+        }
+
+        // records key as the member at index and returns -1, or the index of the member that already has it
+        int put(int key, int index) {
+            int mask = slots.length - 1;
+            int slot = spread(key) & mask;
+            while(slots[slot] != 0) {
+                if(slots[slot] == key + 1)
+                    return indexes[slot];
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = key + 1;
+            indexes[slot] = index;
+            if(size == used.length)
+                used = Arrays.copyOf(used, size * 2);
+            used[size++] = slot;
+            if(size * 2 > slots.length)
+                rehash();
+            return -1;
+        }
+
+        private static int spread(int key) {
+            int h = key * 0x9e3779b9;
+            return h ^ (h >>> 16);
+        }
+
+        private void rehash() {
+            int[] old_slots = slots;
+            int[] old_indexes = indexes;
+            slots = new int[old_slots.length * 2];
+            indexes = new int[old_slots.length * 2];
+            int mask = slots.length - 1;
+            for(int i = 0; i < size; i++) {
+                int slot = spread(old_slots[used[i]] - 1) & mask;
+                while(slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = old_slots[used[i]];
+                indexes[slot] = old_indexes[used[i]];
+                used[i] = slot;
+            }
         }
     }
 
+    // builds tree_nodes while it scans: each element becomes a node named tag + "_", and its children are
+    // grouped when it closes, so no intermediate element tree is kept
     static class xml_parser {
         String s;
         int index;
+        symbol_table symbols;
+        // statistics for the flight recorder events
+        int elements;
+        int max_depth;
+        int duplicate_tags;
 
-        xml_parser(String s) {
+        xml_parser(String s, symbol_table symbols) {
             this.s = s;
             this.index = 0;
+            this.symbols = symbols;
         }
 
         void skip_whitespace() {
@@ -257,7 +446,8 @@ public class task3 {
             }
         }
 
-        String parse_tag_name() throws Exception {
+        // returns the start of the tag name and leaves index at its end
+        int scan_tag_name() throws Exception {
             skip_whitespace();
             int start = index;
             while(index < s.length() && !Character.isWhitespace(s.charAt(index)) &&
@@ -266,62 +456,162 @@ public class task3 {
             }
             if(start == index)
                 throw new Exception("empty tag name");
-            return s.substring(start, index);
+            return start;
         }
 
-        xml_element_raw parse_element() throws Exception {
-            skip_whitespace();
-            if(index >= s.length() || s.charAt(index) != '<')
-                throw new Exception("expected '<' at position " + index);
-            index++; // skip '<'
-            String tag = parse_tag_name();
-            skip_whitespace();
-            while(index < s.length() && s.charAt(index) != '>' && s.charAt(index) != '/') {
-                index++;
-            }
-            boolean self_closing = false;
-            if(index < s.length() && s.charAt(index) == '/') {
-                self_closing = true;
-                index++; // skip '/'
-            }
-            if(index >= s.length() || s.charAt(index) != '>')
-                throw new Exception("expected '>'");
-            index++; // skip '>'
-            xml_element_raw elem = new xml_element_raw(tag);
-            if(self_closing) {
-                return elem;
+        // an element whose content is still being scanned
+        static class open_element {
+            final tree_node node;
+            final int tag_start, tag_end;
+            int text_start, text_end;
+
+            open_element(tree_node node, int tag_start, int tag_end, int text_start) {
+                this.node = node;
+                this.tag_start = tag_start;
+                this.tag_end = tag_end;
+                this.text_start = this.text_end = text_start;
             }
+        }
+
+        // parses one element. open elements are kept on an explicit stack instead of the call stack,
+        // so nesting depth is bounded by memory rather than by the thread's stack size
+        tree_node parse_element() throws Exception {
+            ArrayDeque<open_element> open = new ArrayDeque<>();
             while(true) {
                 skip_whitespace();
-                if(index < s.length() && s.charAt(index) == '<') {
-                    if(s.startsWith("</", index))
-                        break;
-                    xml_element_raw child = parse_element();
-                    elem.children.add(child);
+                if(index >= s.length() || s.charAt(index) != '<')
+                    throw new Exception("expected '<' at position " + index);
+                index++; // skip '<'
+                int tag_start = scan_tag_name();
+                int tag_end = index;
+                skip_whitespace();
+                while(index < s.length() && s.charAt(index) != '>' && s.charAt(index) != '/') {
+                    index++;
+                }
+                boolean self_closing = false;
+                if(index < s.length() && s.charAt(index) == '/') {
+                    self_closing = true;
+                    index++; // skip '/'
+                }
+                if(index >= s.length() || s.charAt(index) != '>')
+                    throw new Exception("expected '>'");
+                index++; // skip '>'
+                tree_node node = new tree_node(symbols.key(s.substring(tag_start, tag_end)), false, null);
+                elements++;
+                tree_node done = null;
+                if(self_closing) {
+                    node.is_leaf = true;
+                    node.value = "";
+                    done = node;
                 } else {
-                    int start = index;
-                    while(index < s.length() && s.charAt(index) != '<') {
-                        index++;
+                    open.push(new open_element(node, tag_start, tag_end, index));
+                    max_depth = Math.max(max_depth, open.size());
+                }
+                // scan content, closing elements, until the next child start tag
+                while(true) {
+                    if(done != null) {
+                        if(open.isEmpty())
+                            return done;
+                        open.peek().node.children.add(done);
+                        done = null;
+                    }
+                    open_element top = open.peek();
+                    skip_whitespace();
+                    if(index >= s.length())
+                        throw new Exception("expected closing tag for " + s.substring(top.tag_start, top.tag_end));
+                    if(s.charAt(index) == '<') {
+                        if(!s.startsWith("</", index))
+                            break;
+                        close(top);
+                        open.pop();
+                        done = top.node;
+                    } else {
+                        top.text_start = index;
+                        while(index < s.length() && s.charAt(index) != '<') {
+                            index++;
+                        }
+                        top.text_end = index;
                     }
-                    elem.text += s.substring(start, index);
                 }
             }
-            if(!s.startsWith("</", index))
-                throw new Exception("expected closing tag for " + tag);
+        }
+
+        // reads the end tag of e and turns its node into a leaf or groups its children
+        void close(open_element e) throws Exception {
             index += 2; // skip "</"
-            String end_tag = parse_tag_name();
-            if(!end_tag.equals(tag))
-                throw new Exception("mismatched tag: " + tag + " vs " + end_tag);
+            int end_start = scan_tag_name();
+            if(index - end_start != e.tag_end - e.tag_start || !s.regionMatches(e.tag_start, s, end_start, index - end_start))
+                throw new Exception("mismatched tag: " + s.substring(e.tag_start, e.tag_end) + " vs " + s.substring(end_start, index));
             skip_whitespace();
             if(index < s.length() && s.charAt(index) == '>')
                 index++;
-            return elem;
+            tree_node node = e.node;
+            if(node.children.isEmpty()) {
+                node.is_leaf = true;
+                node.value = leaf_value(e.text_start, e.text_end);
+            } else {
+                duplicate_tags += group_children(node, symbols);
+            }
         }
 
-        xml_element_raw parse() throws Exception {
+        // the root is always an object and its name is ignored
+        tree_node parse() throws Exception {
             skip_whitespace();
-            return parse_element();
+            tree_node root = parse_element();
+            root.name = symbols.intern("");
+            root.is_leaf = false;
+            root.value = null;
+            return root;
+        }
+
+        String leaf_value(int start, int end) {
+            while(start < end && s.charAt(start) <= ' ') {
+                start++;
+            }
+            while(end > start && s.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            String txt = s.substring(start, end);
+            if(!txt.isEmpty() && txt.charAt(0) == '"' && txt.charAt(txt.length() - 1) == '"') {
+                txt = unquote(txt);
+            }
+            return txt;
+        }
+    }
+
+    // children of a closed element arrive in document order, named tag + "_". a stable sort by name id puts
+    // each tag group together in document order; a tag seen once keeps its node and a repeated tag becomes
+    // an array node whose members are renamed "0", "1", .... returns how many children joined a group
+    // after its first member
+    static int group_children(tree_node node, symbol_table symbols) {
+        List<tree_node> children = node.children;
+        children.sort((x, y) -> Integer.compare(x.name, y.name));
+        List<tree_node> grouped = new ArrayList<>(children.size());
+        int repeated = 0;
+        int i = 0;
+        while(i < children.size()) {
+            int name = children.get(i).name;
+            int j = i + 1;
+            while(j < children.size() && children.get(j).name == name) {
+                j++;
+            }
+            if(j - i == 1) {
+                grouped.add(children.get(i));
+            } else {
+                tree_node array_node = new tree_node(name, false, null);
+                array_node.is_array = true;
+                repeated += j - i - 1;
+                for(int k = i; k < j; k++) {
+                    tree_node child_node = children.get(k);
+                    child_node.name = symbols.index(k - i);
+                    array_node.children.add(child_node);
+                }
+                grouped.add(array_node);
+            }
+            i = j;
         }
+        node.children = grouped;
+        return repeated;
     }
 
     static String unquote(String s) {
@@ -342,113 +632,52 @@ public class task3 {
         return s;
     }
 
-    static tree_node build_tree_from_xml(xml_element_raw elem, boolean is_root) {
-        if(is_root) {
-            tree_node root = new tree_node("", false, null);
-            Map<String, List<xml_element_raw>> groups = new TreeMap<>();
-            for(xml_element_raw child : elem.children) {
-                groups.computeIfAbsent(child.tag, k -> new ArrayList<>()).add(child);
-            }
-            List<tree_node> children = new ArrayList<>();
-            for(Map.Entry<String, List<xml_element_raw>> entry : groups.entrySet()) {
-                String tag = entry.getKey();
-                List<xml_element_raw> group = entry.getValue();
-                if(group.size() == 1) {
-                    tree_node child_node = build_tree_from_xml(group.get(0), false);
-                    child_node.name = tag + "_";
-                    children.add(child_node);
-                } else {
-                    tree_node array_node = new tree_node(tag + "_", false, null);
-                    List<tree_node> array_children = new ArrayList<>();
-                    for(int i = 0; i < group.size(); i++) {
-                        tree_node child_node = build_tree_from_xml(group.get(i), false);
-                        child_node.name = String.valueOf(i);
-                        array_children.add(child_node);
-                    }
-                    array_node.children = array_children;
-                    children.add(array_node);
-                }
-            }
-            Collections.sort(children, Comparator.comparing(n -> n.name));
-            root.children = children;
-            return root;
-        } else {
-            if(elem.children.isEmpty()) {
-                String txt = elem.text.trim();
-                if(!txt.isEmpty() && txt.charAt(0) == '"' && txt.charAt(txt.length() - 1) == '"') {
-                    txt = unquote(txt);
-                }
-                return new tree_node(elem.tag + "_", true, txt);
-            } else {
-                tree_node node = new tree_node(elem.tag + "_", false, null);
-                Map<String, List<xml_element_raw>> groups = new TreeMap<>();
-                for(xml_element_raw child : elem.children) {
-                    groups.computeIfAbsent(child.tag, k -> new ArrayList<>()).add(child);
-                }
-                List<tree_node> children = new ArrayList<>();
-                for(Map.Entry<String, List<xml_element_raw>> entry : groups.entrySet()) {
-                    String tag = entry.getKey();
-                    List<xml_element_raw> group = entry.getValue();
-                    if(group.size() == 1) {
-                        tree_node child_node = build_tree_from_xml(group.get(0), false);
-                        child_node.name = tag + "_";
-                        children.add(child_node);
-                    } else {
-                        tree_node array_node = new tree_node(tag + "_", false, null);
-                        List<tree_node> array_children = new ArrayList<>();
-                        for(int i = 0; i < group.size(); i++) {
-                            tree_node child_node = build_tree_from_xml(group.get(i), false);
-                            child_node.name = String.valueOf(i);
-                            array_children.add(child_node);
-                        }
-                        array_node.children = array_children;
-                        children.add(array_node);
-                    }
-                }
-                Collections.sort(children, Comparator.comparing(n -> n.name));
-                node.children = children;
-                return node;
-            }
-        }
+    // the cost of a pair is its own cost plus that of its aligned child pairs, and any inf makes the whole
+    // diff inf, so pairs can be visited in any order. child pairs wait on an explicit stack, created only
+    // once a pair of inner nodes is reached
+    static int diff(tree_node a, tree_node b, boolean ignore_name) {
+        return diff(a, b, ignore_name, inf);
     }
 
-    static int diff(tree_node a, tree_node b, boolean ignore_name) {
-        if(a.is_leaf && b.is_leaf) {
-            int cost = 0;
-            if(!ignore_name && !a.name.equals(b.name)) {
-                cost += 1;
-            }
-            if(!normalize(a.value).equals(normalize(b.value))) {
-                cost += 1;
-            }
-            return cost;
-        } else if(!a.is_leaf && !b.is_leaf) {
-            int cost = 0;
-            if(!ignore_name && !a.name.equals(b.name)) {
-                cost += 1;
-            }
-            cost += children_diff(a.children, b.children);
-            return cost;
-        } else {
-            if(a.is_leaf && !b.is_leaf) {
-                int ins = insertion_cost(b.children);
-                if(ins >= inf)
-                    return inf;
-                int cost = 1 + ins;
-                if(!ignore_name && !a.name.equals(b.name)) {
+    // diff() that gives up once the cost reaches limit and returns limit. every pair waiting on the stack
+    // will cost at least its count_bound(), so it also gives up once the cost plus what they owe reaches it
+    static int diff(tree_node a, tree_node b, boolean ignore_name, int limit) {
+        ArrayDeque<tree_node> pending = null;
+        int cost = 0;
+        long owed = 0;
+        while(true) {
+            if(a.hash != b.hash || a.size != b.size || (!ignore_name && a.name != b.name)) {
+                if(!ignore_name && a.name != b.name) {
                     cost += 1;
                 }
-                return cost;
-            } else {
-                int del = deletion_cost(a.children);
-                if(del >= inf)
-                    return inf;
-                int cost = 1 + del;
-                if(!ignore_name && !a.name.equals(b.name)) {
-                    cost += 1;
+                if(a.is_leaf && b.is_leaf) {
+                    if(!normalize(a.value).equals(normalize(b.value))) {
+                        cost += 1;
+                    }
+                } else if(!a.is_leaf && !b.is_leaf) {
+                    cost += tail_cost(a.children, b.children);
+                    if(pending == null) {
+                        pending = new ArrayDeque<>();
+                    }
+                    for(int i = Math.min(a.children.size(), b.children.size()) - 1; i >= 0; i--) {
+                        pending.push(b.children.get(i));
+                        pending.push(a.children.get(i));
+                        owed += count_bound(a.children.get(i).size, b.children.get(i).size);
+                    }
+                } else if(a.is_leaf) {
+                    cost += 1 + insertion_cost(b.children);
+                } else {
+                    cost += 1 + deletion_cost(a.children);
                 }
-                return cost;
+                if(cost + owed >= limit)
+                    return limit;
             }
+            if(pending == null || pending.isEmpty())
+                return cost;
+            a = pending.pop();
+            b = pending.pop();
+            owed -= count_bound(a.size, b.size);
+            ignore_name = false;
         }
     }
 
@@ -473,14 +702,53 @@ public class task3 {
     }
 
     static int children_diff(List<tree_node> A, List<tree_node> B) {
-        int m = A.size(), n = B.size();
-        int cost = 0;
-        int k = Math.min(m, n);
-        for(int i = 0; i < k; i++) {
+        int cost = tail_cost(A, B);
+        int k = Math.min(A.size(), B.size());
+        for(int i = 0; i < k && cost < inf; i++) {
             cost += diff(A.get(i), B.get(i), false);
-            if(cost >= inf)
-                return inf;
         }
+        return cost >= inf ? inf : cost;
+    }
+
+    // a lower bound on the diff of two subtrees, or sibling lists, holding orig and fin nodes. a node only
+    // one side has is inserted at 2 or deleted at 1, either as a leaf past the aligned children or as a
+    // child of a leaf that became an inner node or the reverse, and everything else pairs off. the same
+    // holds for leaf counts, so both are lower bounds
+    static long count_bound(long orig, long fin) {
+        return orig < fin ? 2 * (fin - orig) : orig - fin;
+    }
+
+    // the diff of the roots' children when it is at most budget, otherwise budget + 1, which inf also
+    // becomes. leaves are the counts finish() returned. roots whose node or leaf counts are too far apart
+    // are rejected before any pair is diffed, and each aligned pair is diffed only with what is left of the
+    // budget after the rest are owed theirs
+    static int bounded_diff(tree_node orig, int orig_leaves, tree_node fin, int final_leaves, int budget) {
+        int limit = budget + 1;
+        if(count_bound(orig.size, fin.size) >= limit || count_bound(orig_leaves, final_leaves) >= limit)
+            return limit;
+        List<tree_node> A = orig.children, B = fin.children;
+        int k = Math.min(A.size(), B.size());
+        int cost = tail_cost(A, B);
+        long owed = 0;
+        for(int i = 0; i < k; i++) {
+            owed += count_bound(A.get(i).size, B.get(i).size);
+        }
+        for(int i = 0; i < k && cost + owed < limit; i++) {
+            owed -= count_bound(A.get(i).size, B.get(i).size);
+            cost += diff(A.get(i), B.get(i), false, (int) (limit - cost - owed));
+        }
+        return cost + owed >= limit ? limit : cost;
+    }
+
+    // what --within prints for a bounded_diff() answer
+    static String within(int answer, int budget) {
+        return answer > budget ? ">" + budget : String.valueOf(answer);
+    }
+
+    // cost of the children past the shorter list: inserted ones cost 2, deleted ones 1, and only leaves can go
+    static int tail_cost(List<tree_node> A, List<tree_node> B) {
+        int m = A.size(), n = B.size();
+        int cost = 0;
         if(m < n) {
             for(int i = m; i < n; i++) {
                 if(!B.get(i).is_leaf)
@@ -497,6 +765,104 @@ public class task3 {
         return cost;
     }
 
+    // aligned child pairs are independent, so the parallel diff splits a sibling list by subtree size and
+    // hands single big pairs down to their own children. ranges below this many nodes run sequentially
+    static final int parallel_cutoff = 1 << 13;
+
+    static int parallel_children_diff(List<tree_node> A, List<tree_node> B) {
+        return ForkJoinPool.commonPool().invoke(pairs_task.of(A, B, new AtomicBoolean()));
+    }
+
+    // diffs the aligned pairs [from, to) of two sibling lists. inf anywhere makes the whole diff inf,
+    // so the first task to reach it sets the shared flag and every other task stops at its next check
+    static class pairs_task extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+        final List<tree_node> A, B;
+        final long[] work; // work[i] = nodes in pairs [0, i)
+        final int from, to;
+        final int tail;
+        final AtomicBoolean failed;
+
+        pairs_task(List<tree_node> A, List<tree_node> B, long[] work, int from, int to, int tail, AtomicBoolean failed) {
+            this.A = A;
+            this.B = B;
+            this.work = work;
+            this.from = from;
+            this.to = to;
+            this.tail = tail;
+            this.failed = failed;
+        }
+
+        // the task for all of children_diff(A, B), tail included
+        static pairs_task of(List<tree_node> A, List<tree_node> B, AtomicBoolean failed) {
+            int k = Math.min(A.size(), B.size());
+            long[] work = new long[k + 1];
+            for(int i = 0; i < k; i++) {
+                work[i + 1] = work[i] + A.get(i).size + B.get(i).size;
+            }
+            return new pairs_task(A, B, work, 0, k, tail_cost(A, B), failed);
+        }
+
+        @Override
+        protected Integer compute() {
+            if(tail >= inf || failed.get())
+                return fail();
+            int cost = tail;
+            if(work[to] - work[from] <= parallel_cutoff) {
+                for(int i = from; i < to; i++) {
+                    cost += diff(A.get(i), B.get(i), false);
+                    if(cost >= inf || failed.get())
+                        return fail();
+                }
+            } else if(to - from == 1) {
+                cost += pair_diff(A.get(from), B.get(from));
+            } else {
+                int mid = split_point();
+                pairs_task left = new pairs_task(A, B, work, from, mid, 0, failed);
+                left.fork();
+                cost += new pairs_task(A, B, work, mid, to, 0, failed).compute();
+                cost += left.join();
+            }
+            return cost >= inf ? fail() : cost;
+        }
+
+        // first index past half of the range's work, kept inside (from, to)
+        private int split_point() {
+            long half = (work[from] + work[to]) / 2;
+            int lo = from + 1, hi = to - 1;
+            while(lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if(work[mid] < half)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+
+        // a chain of single big pairs, as in a deeply nested document, is followed in a loop rather than
+        // by nesting one task per level
+        private int pair_diff(tree_node a, tree_node b) {
+            int cost = 0;
+            while(true) {
+                if(a.is_leaf || b.is_leaf || (a.hash == b.hash && a.size == b.size && a.name == b.name))
+                    return cost + diff(a, b, false);
+                cost += a.name == b.name ? 0 : 1;
+                pairs_task task = of(a.children, b.children, failed);
+                if(task.tail >= inf || task.to != 1 || task.work[1] <= parallel_cutoff)
+                    return cost + task.compute();
+                cost += task.tail;
+                a = a.children.get(0);
+                b = b.children.get(0);
+            }
+        }
+
+        private int fail() {
+            failed.set(true);
+            return inf;
+        }
+    }
+
     static String normalize(String s) {
         if(s == null)
             return "";
@@ -505,63 +871,1778 @@ public class task3 {
         return s;
     }
 
-    public static void main(String[] args) throws IOException {
-        BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
-        List<String> all_lines = new ArrayList<>();
-        String line;
-        while((line = br.readLine()) != null) {
-            all_lines.add(line);
-        }
-        if(all_lines.isEmpty()) {
-            System.out.println(0);
-            return;
+    // normalized leaf values. null, "null" and "" all become id 0, and trees that are diffed against each
+    // other share one table, so two leaves hold the same value exactly when their ids are equal
+    static class value_table {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        value_table() {
+            intern("");
         }
-        int sep = -1;
-        for(int i = 0; i < all_lines.size(); i++) {
-            if(all_lines.get(i).trim().equals("---")) {
-                sep = i;
-                break;
+
+        int intern(String value) {
+            String normalized = normalize(value);
+            Integer id = ids.get(normalized);
+            if(id == null) {
+                id = values.size();
+                ids.put(normalized, id);
+                values.add(normalized);
             }
+            return id;
         }
-        if(sep == -1) {
-            System.out.println(0);
-            return;
+
+        String value(int id) {
+            return values.get(id);
         }
-        StringBuilder sb_final = new StringBuilder();
-        for(int i = 0; i < sep; i++) {
-            sb_final.append(all_lines.get(i)).append("\n");
+
+        int size() {
+            return values.size();
         }
-        StringBuilder sb_orig = new StringBuilder();
-        for(int i = sep + 1; i < all_lines.size(); i++) {
-            sb_orig.append(all_lines.get(i)).append("\n");
+    }
+
+    // struct-of-arrays copy of a finished tree, laid out in pre-order. the first child of node i is i + 1
+    // and the sibling after it starts at end[i], so children are walked without pointers and a subtree is
+    // the index range [i, end[i]). a node costs 29 bytes here against 100+ for a tree_node and its list.
+    // the columns are buffers so that a store can also sit directly on a memory-mapped snapshot
+    static class tree_store {
+        static final byte kind_object = 0;
+        static final byte kind_array = 1;
+        static final byte kind_value = 2;
+        static final byte kind_empty = 3; // leaf whose normalized value is ""
+
+        final IntBuffer parent;
+        final IntBuffer end;
+        final IntBuffer child_count;
+        final IntBuffer name;
+        final ByteBuffer kind;
+        final IntBuffer value; // value_table id, 0 for inner nodes
+        final LongBuffer hash;
+        int count;
+
+        tree_store(int size) {
+            this(0, IntBuffer.allocate(size), IntBuffer.allocate(size), IntBuffer.allocate(size), IntBuffer.allocate(size),
+                 ByteBuffer.allocate(size), IntBuffer.allocate(size), LongBuffer.allocate(size));
         }
-        String dataset_final = sb_final.toString().trim();
-        String dataset_orig = sb_orig.toString().trim();
-        tree_node final_tree = null, orig_tree = null;
-        try {
-            if(dataset_final.startsWith("<")) {
-                xml_parser xp = new xml_parser(dataset_final);
-                xml_element_raw xml_root = xp.parse();
-                final_tree = build_tree_from_xml(xml_root, true);
+
+        tree_store(int count, IntBuffer parent, IntBuffer end, IntBuffer child_count, IntBuffer name,
+                   ByteBuffer kind, IntBuffer value, LongBuffer hash) {
+            this.count = count;
+            this.parent = parent;
+            this.end = end;
+            this.child_count = child_count;
+            this.name = name;
+            this.kind = kind;
+            this.value = value;
+            this.hash = hash;
+        }
+
+        // lays the tree out in pre-order from an explicit stack. size is the sealed subtree size, so
+        // end is known when a node is placed
+        static tree_store of(tree_node root, value_table values) {
+            tree_store store = new tree_store(root.size);
+            ArrayDeque<tree_node> nodes = new ArrayDeque<>();
+            int[] parents = new int[16];
+            nodes.push(root);
+            parents[0] = -1;
+            while(!nodes.isEmpty()) {
+                tree_node node = nodes.pop();
+                int i = store.add(node, parents[nodes.size()], values);
+                int children = node.children.size();
+                if(nodes.size() + children > parents.length) {
+                    parents = Arrays.copyOf(parents, Math.max(parents.length * 2, nodes.size() + children));
+                }
+                for(int c = children - 1; c >= 0; c--) {
+                    parents[nodes.size()] = i;
+                    nodes.push(node.children.get(c));
+                }
+            }
+            return store;
+        }
+
+        private int add(tree_node node, int parent_index, value_table values) {
+            int i = count++;
+            parent.put(i, parent_index);
+            end.put(i, i + node.size);
+            child_count.put(i, node.children.size());
+            name.put(i, node.name);
+            hash.put(i, node.hash);
+            if(node.is_leaf) {
+                int id = values.intern(node.value);
+                value.put(i, id);
+                kind.put(i, id == 0 ? kind_empty : kind_value);
             } else {
-                json_parser jp = new json_parser(dataset_final);
-                Object json = jp.parse_value();
-                final_tree = build_tree_from_json(json, "");
-            }
-            if(dataset_orig.startsWith("<")) {
-                xml_parser xp = new xml_parser(dataset_orig);
-                xml_element_raw xml_root = xp.parse();
-                orig_tree = build_tree_from_xml(xml_root, true);
+                kind.put(i, node.is_array ? kind_array : kind_object);
+            }
+            return i;
+        }
+
+        boolean is_leaf(int i) {
+            return kind.get(i) >= kind_value;
+        }
+    }
+
+    // diff over two tree_stores whose name and value ids come from the same tables. like diff(), it sums
+    // the cost of every pair it reaches, with the pairs still to visit on an index_pairs stack
+    static int store_diff(tree_store A, int a, tree_store B, int b) {
+        index_pairs pending = new index_pairs();
+        pending.push(a, b);
+        return store_drain(A, B, pending, 0);
+    }
+
+    static int store_children_diff(tree_store A, int a, tree_store B, int b) {
+        index_pairs pending = new index_pairs();
+        int cost = store_push_children(A, a, B, b, pending);
+        return cost >= inf ? inf : store_drain(A, B, pending, cost);
+    }
+
+    private static int store_drain(tree_store A, tree_store B, index_pairs pending, int cost) {
+        while(pending.size > 0) {
+            int b = pending.items[--pending.size];
+            int a = pending.items[--pending.size];
+            boolean same_name = A.name.get(a) == B.name.get(b);
+            if(same_name && A.hash.get(a) == B.hash.get(b) && A.end.get(a) - a == B.end.get(b) - b)
+                continue; // identical subtrees
+            if(!same_name)
+                cost += 1;
+            boolean a_leaf = A.is_leaf(a), b_leaf = B.is_leaf(b);
+            if(a_leaf && b_leaf)
+                cost += A.value.get(a) == B.value.get(b) ? 0 : 1;
+            else if(!a_leaf && !b_leaf)
+                cost += store_push_children(A, a, B, b, pending);
+            else
+                cost += 1 + (a_leaf ? store_leaf_children(B, b, 2) : store_leaf_children(A, a, 1));
+            if(cost >= inf)
+                return inf;
+        }
+        return cost;
+    }
+
+    // pushes the aligned child pairs of a and b and returns the cost of the unaligned tail
+    private static int store_push_children(tree_store A, int a, tree_store B, int b, index_pairs pending) {
+        int m = A.child_count.get(a), n = B.child_count.get(b);
+        int ca = a + 1, cb = b + 1;
+        int k = Math.min(m, n);
+        for(int i = 0; i < k; i++) {
+            pending.push(ca, cb);
+            ca = A.end.get(ca);
+            cb = B.end.get(cb);
+        }
+        int cost = 0;
+        for(int i = k; i < n; i++) {
+            if(!B.is_leaf(cb))
+                return inf;
+            cost += 2;
+            cb = B.end.get(cb);
+        }
+        for(int i = k; i < m; i++) {
+            if(!A.is_leaf(ca))
+                return inf;
+            cost += 1;
+            ca = A.end.get(ca);
+        }
+        return cost;
+    }
+
+    // growable stack of (a, b) index pairs
+    static class index_pairs {
+        int[] items = new int[32];
+        int size;
+
+        void push(int a, int b) {
+            if(size + 2 > items.length)
+                items = Arrays.copyOf(items, items.length * 2);
+            items[size++] = a;
+            items[size++] = b;
+        }
+    }
+
+    // cost of inserting or deleting all children of node i, each_cost per child; only leaves can go
+    static int store_leaf_children(tree_store T, int i, int each_cost) {
+        int cost = 0;
+        for(int c = i + 1; c < T.end.get(i); c = T.end.get(c)) {
+            if(!T.is_leaf(c))
+                return inf;
+            cost += each_cost;
+        }
+        return cost;
+    }
+
+    // a tree_store saved to disk together with its names and values, so a baseline that many documents are
+    // diffed against is parsed once. the file is the store's columns one after another, then the name and
+    // value tables as offset arrays plus UTF-8 blobs. both tables are sorted bytewise and the ids in the
+    // columns are positions in them, so a document's names and values are looked up by binary search over
+    // the mapped bytes. opening a snapshot maps the sections and reads nothing else
+    static class snapshot {
+        static final long magic = 0x7461736b33736e70L; // "task3snp"
+        static final int header_size = 32;
+
+        final tree_store store;
+        final string_section names;
+        final string_section values;
+
+        snapshot(tree_store store, string_section names, string_section values) {
+            this.store = store;
+            this.names = names;
+            this.values = values;
+        }
+
+        static void write(String path, tree_store store, symbol_table symbols, value_table values) throws IOException {
+            List<String> name_list = new ArrayList<>(symbols.size());
+            for(int i = 0; i < symbols.size(); i++) {
+                name_list.add(symbols.name(i));
+            }
+            List<String> value_list = new ArrayList<>(values.size());
+            for(int i = 0; i < values.size(); i++) {
+                value_list.add(values.value(i));
+            }
+            byte[][] name_bytes = encode(name_list);
+            byte[][] value_bytes = encode(value_list);
+            int[] name_ids = sorted_ids(name_bytes);
+            int[] value_ids = sorted_ids(value_bytes);
+            int n = store.count;
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(Paths.get(path)), 1 << 16))) {
+                out.writeLong(magic);
+                out.writeInt(n);
+                out.writeInt(name_bytes.length);
+                out.writeInt(value_bytes.length);
+                out.writeInt(0);
+                out.writeLong(0);
+                for(int i = 0; i < n; i++)
+                    out.writeLong(store.hash.get(i));
+                for(int i = 0; i < n; i++)
+                    out.writeInt(store.parent.get(i));
+                for(int i = 0; i < n; i++)
+                    out.writeInt(store.end.get(i));
+                for(int i = 0; i < n; i++)
+                    out.writeInt(store.child_count.get(i));
+                for(int i = 0; i < n; i++)
+                    out.writeInt(name_ids[store.name.get(i)]);
+                for(int i = 0; i < n; i++)
+                    out.writeInt(value_ids[store.value.get(i)]);
+                for(int i = 0; i < n; i++)
+                    out.writeByte(store.kind.get(i));
+                write_strings(out, name_bytes, name_ids);
+                write_strings(out, value_bytes, value_ids);
+            }
+        }
+
+        private static byte[][] encode(List<String> strings) {
+            byte[][] bytes = new byte[strings.size()][];
+            for(int i = 0; i < bytes.length; i++) {
+                bytes[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+            }
+            return bytes;
+        }
+
+        // ids[i] = position of bytes[i] in bytewise order
+        private static int[] sorted_ids(byte[][] bytes) {
+            Integer[] order = new Integer[bytes.length];
+            for(int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (x, y) -> Arrays.compareUnsigned(bytes[x], bytes[y]));
+            int[] ids = new int[bytes.length];
+            for(int i = 0; i < order.length; i++) {
+                ids[order[i]] = i;
+            }
+            return ids;
+        }
+
+        private static void write_strings(DataOutputStream out, byte[][] bytes, int[] ids) throws IOException {
+            byte[][] sorted = new byte[bytes.length][];
+            for(int i = 0; i < bytes.length; i++) {
+                sorted[ids[i]] = bytes[i];
+            }
+            long offset = 0;
+            out.writeInt(0);
+            for(byte[] b : sorted) {
+                offset += b.length;
+                if(offset > Integer.MAX_VALUE)
+                    throw new IOException("snapshot string table too large");
+                out.writeInt((int) offset);
+            }
+            for(byte[] b : sorted) {
+                out.write(b);
+            }
+        }
+
+        static snapshot open(String path) throws IOException {
+            try(FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+                ByteBuffer header = map(channel, 0, header_size);
+                if(header.getLong(0) != magic)
+                    throw new IOException("not a task3 snapshot: " + path);
+                int n = header.getInt(8);
+                int name_count = header.getInt(12);
+                int value_count = header.getInt(16);
+                long pos = header_size;
+                LongBuffer hash = map(channel, pos, 8L * n).asLongBuffer();
+                pos += 8L * n;
+                IntBuffer[] columns = new IntBuffer[5];
+                for(int c = 0; c < columns.length; c++) {
+                    columns[c] = map(channel, pos, 4L * n).asIntBuffer();
+                    pos += 4L * n;
+                }
+                ByteBuffer kind = map(channel, pos, n);
+                pos += n;
+                string_section names = string_section.map(channel, pos, name_count);
+                string_section values = string_section.map(channel, names.next, value_count);
+                tree_store store = new tree_store(n, columns[0], columns[1], columns[2], columns[3], kind, columns[4], hash);
+                return new snapshot(store, names, values);
+            }
+        }
+
+        // every section is mapped on its own, so only a single column is bound by the 2 GB mapping limit
+        static ByteBuffer map(FileChannel channel, long pos, long size) throws IOException {
+            return channel.map(FileChannel.MapMode.READ_ONLY, pos, size);
+        }
+
+        // moves a store built against its own tables onto the snapshot's ids. names and values the
+        // snapshot does not have get negative ids, which match nothing on its side
+        void relabel(tree_store doc, symbol_table symbols, value_table doc_values) {
+            int[] name_ids = new int[symbols.size()];
+            for(int i = 0; i < name_ids.length; i++) {
+                int found = names.find(symbols.name(i).getBytes(StandardCharsets.UTF_8));
+                name_ids[i] = found >= 0 ? found : -1 - i;
+            }
+            int[] value_ids = new int[doc_values.size()];
+            for(int i = 0; i < value_ids.length; i++) {
+                int found = values.find(doc_values.value(i).getBytes(StandardCharsets.UTF_8));
+                value_ids[i] = found >= 0 ? found : -1 - i;
+            }
+            for(int i = 0; i < doc.count; i++) {
+                doc.name.put(i, name_ids[doc.name.get(i)]);
+                doc.value.put(i, value_ids[doc.value.get(i)]);
+            }
+        }
+    }
+
+    // sorted strings of a snapshot: count + 1 offsets followed by the concatenated UTF-8 bytes
+    static class string_section {
+        final IntBuffer offsets;
+        final ByteBuffer bytes;
+        final int count;
+        final long next; // file position after the section
+
+        string_section(IntBuffer offsets, ByteBuffer bytes, int count, long next) {
+            this.offsets = offsets;
+            this.bytes = bytes;
+            this.count = count;
+            this.next = next;
+        }
+
+        static string_section map(FileChannel channel, long pos, int count) throws IOException {
+            IntBuffer offsets = snapshot.map(channel, pos, 4L * (count + 1)).asIntBuffer();
+            pos += 4L * (count + 1);
+            int length = offsets.get(count);
+            ByteBuffer bytes = snapshot.map(channel, pos, length);
+            return new string_section(offsets, bytes, count, pos + length);
+        }
+
+        // index of key, or -1
+        int find(byte[] key) {
+            int lo = 0, hi = count - 1;
+            while(lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = compare(mid, key);
+                if(c < 0)
+                    lo = mid + 1;
+                else if(c > 0)
+                    hi = mid - 1;
+                else
+                    return mid;
+            }
+            return -1;
+        }
+
+        private int compare(int id, byte[] key) {
+            int start = offsets.get(id), length = offsets.get(id + 1) - start;
+            int k = Math.min(length, key.length);
+            for(int i = 0; i < k; i++) {
+                int c = Integer.compare(bytes.get(start + i) & 0xff, key[i] & 0xff);
+                if(c != 0)
+                    return c;
+            }
+            return Integer.compare(length, key.length);
+        }
+    }
+
+    // --external diffs two dataset files without holding either tree in the heap. each file is parsed once
+    // into a spill file of records, one per array or object, written as it closes: the number of children,
+    // then an entry per child in the order the diff pairs them, holding the child's name, hash and size and
+    // either its normalized value, for a leaf, or the position of its own record. hashes and sizes are the
+    // ones seal() gives, so identical subtrees are skipped exactly as they are in memory. object members are
+    // sorted by name in runs of run_limit entries; an object that outgrows a run writes it to a temporary
+    // file, and the runs are merged into its record when it closes. the diff then maps both spill files and
+    // walks them side by side. the parser still indexes chars with an int, so one file is at most 2 GB
+    static final int run_limit = 1 << 16;
+    static final int fan_in = 64; // runs merged at once, and so open at once
+
+    // maps a dataset file, trimmed the way datasets read from stdin are
+    static mapped_chars map_dataset(String path) throws IOException {
+        try(FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE)
+                throw new IOException("file too large to map: " + path);
+            ByteBuffer buf = snapshot.map(channel, 0, size);
+            int start = 0, end = (int) size;
+            while(start < end && (buf.get(start) & 0xff) <= ' ') {
+                start++;
+            }
+            while(end > start && (buf.get(end - 1) & 0xff) <= ' ') {
+                end--;
+            }
+            return new mapped_chars(buf, start, end - start);
+        }
+    }
+
+    // a string cut out of a mapped_chars, decoded as UTF-8
+    static String decode(String bytes) {
+        for(int i = 0; i < bytes.length(); i++) {
+            if(bytes.charAt(i) >= 0x80)
+                return new String(bytes.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+        }
+        return bytes;
+    }
+
+    // one child as its parent's record lists it. seq is its position among the members of its parent and
+    // only orders repeated keys while runs are merged
+    static class spill_entry {
+        String name;
+        long seq;
+        final long hash;
+        final long size; // 1 exactly for leaves
+        final String value; // normalized, leaves only
+        final long offset; // position of the record, inner nodes only
+
+        spill_entry(long hash, long size, String value, long offset) {
+            this.hash = hash;
+            this.size = size;
+            this.value = value;
+            this.offset = offset;
+        }
+
+        static spill_entry leaf(String value) {
+            String normalized = normalize(value);
+            return new spill_entry(leaf_hash(normalized), 1, normalized, -1);
+        }
+
+        // as an entry of a record
+        void write(spill_writer out) throws IOException {
+            out.put_string(name);
+            out.put_long(hash);
+            out.put_long(size);
+            if(size == 1)
+                out.put_string(value);
+            else
+                out.put_long(offset);
+        }
+
+        // as an entry of a run file, which ends with a -1 length
+        void write(DataOutputStream out) throws IOException {
+            write_string(out, name);
+            out.writeLong(seq);
+            out.writeLong(hash);
+            out.writeLong(size);
+            if(size == 1)
+                write_string(out, value);
+            else
+                out.writeLong(offset);
+        }
+
+        static spill_entry read(DataInputStream in) throws IOException {
+            String name = read_string(in);
+            if(name == null)
+                return null;
+            long seq = in.readLong();
+            long hash = in.readLong();
+            long size = in.readLong();
+            spill_entry e = size == 1 ? new spill_entry(hash, 1, read_string(in), -1) : new spill_entry(hash, size, null, in.readLong());
+            e.name = name;
+            e.seq = seq;
+            return e;
+        }
+
+        private static void write_string(DataOutputStream out, String s) throws IOException {
+            ByteBuffer bytes = ByteBuffer.allocate(4 + 2 * s.length());
+            bytes.putInt(s.length()).asCharBuffer().put(s);
+            out.write(bytes.array());
+        }
+
+        private static String read_string(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if(length < 0)
+                return null;
+            byte[] bytes = new byte[2 * length];
+            in.readFully(bytes);
+            return ByteBuffer.wrap(bytes).asCharBuffer().toString();
+        }
+    }
+
+    // the entries of one record in the order it takes them, read once; null after the last
+    interface entry_source {
+        spill_entry next() throws IOException;
+    }
+
+    static class run_reader implements entry_source {
+        private final DataInputStream in;
+
+        run_reader(Path path) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16));
+        }
+
+        @Override
+        public spill_entry next() throws IOException {
+            spill_entry e = spill_entry.read(in);
+            if(e == null)
+                in.close();
+            return e;
+        }
+    }
+
+    // appends to a spill file through one buffer. a record's child count is only known once its entries are
+    // written, so it is patched in afterwards, in the buffer or in the file
+    static class spill_writer implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+        private long flushed; // file position of buf's first byte
+
+        spill_writer(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        }
+
+        long position() {
+            return flushed + buf.position();
+        }
+
+        void put_int(int v) throws IOException {
+            room(4);
+            buf.putInt(v);
+        }
+
+        void put_long(long v) throws IOException {
+            room(8);
+            buf.putLong(v);
+        }
+
+        // length, then the chars as UTF-16, so any Java string comes back as it went in
+        void put_string(String s) throws IOException {
+            put_int(s.length());
+            if(2 * s.length() <= buf.remaining()) {
+                buf.asCharBuffer().put(s);
+                buf.position(buf.position() + 2 * s.length());
+                return;
+            }
+            for(int i = 0; i < s.length(); i++) {
+                room(2);
+                buf.putChar(s.charAt(i));
+            }
+        }
+
+        // a value is never split between the buffer and the file, so at is either wholly here or wholly written
+        void patch_int(long at, int v) throws IOException {
+            if(at >= flushed) {
+                buf.putInt((int) (at - flushed), v);
+                return;
+            }
+            ByteBuffer b = ByteBuffer.allocate(4).putInt(0, v);
+            while(b.hasRemaining()) {
+                channel.write(b, at + b.position());
+            }
+        }
+
+        private void room(int n) throws IOException {
+            if(buf.remaining() < n)
+                flush();
+        }
+
+        private void flush() throws IOException {
+            buf.flip();
+            while(buf.hasRemaining()) {
+                flushed += channel.write(buf);
+            }
+            buf.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            channel.close();
+        }
+    }
+
+    // writes a JSON document's records from the parser's events. names, values and hashes match json_builder
+    // followed by finish(): a repeated key keeps its last value, and empty objects and arrays are leaves
+    static class spill_builder implements json_event_parser.handler {
+        // one open array or object: its children so far, the older ones in run files
+        static class level {
+            boolean object;
+            String key; // name of the member being read
+            long count; // children added so far, which also names the next array element
+            final ArrayList<spill_entry> entries = new ArrayList<>();
+            final List<Path> runs = new ArrayList<>();
+        }
+
+        private final spill_writer out;
+        private final Path dir;
+        private final int limit;
+        private level[] levels = new level[8];
+        private int depth;
+        private int runs_made;
+        long root = -1; // position of the root's record
+        // statistics for the flight recorder events
+        int duplicate_keys;
+
+        spill_builder(spill_writer out, Path dir, int limit) {
+            this.out = out;
+            this.dir = dir;
+            this.limit = limit;
+        }
+
+        @Override
+        public void start_object() {
+            open(true);
+        }
+
+        @Override
+        public void key(CharSequence s, int start, int end) {
+            levels[depth - 1].key = decode(json_event_parser.unescape(s, start, end)) + "_";
+        }
+
+        @Override
+        public void end_object() throws IOException {
+            close("{}");
+        }
+
+        @Override
+        public void start_array() {
+            open(false);
+        }
+
+        @Override
+        public void end_array() throws IOException {
+            close("[]");
+        }
+
+        @Override
+        public void string(CharSequence s, int start, int end) throws IOException {
+            add(spill_entry.leaf(decode(json_event_parser.unescape(s, start, end))));
+        }
+
+        @Override
+        public void number(CharSequence s, int start, int end, boolean fraction) throws IOException {
+            String num_str = s.subSequence(start, end).toString();
+            add(spill_entry.leaf(fraction ? Double.toString(Double.parseDouble(num_str)) : Long.toString(Long.parseLong(num_str))));
+        }
+
+        @Override
+        public void literal(Boolean value) throws IOException {
+            add(spill_entry.leaf(value == null ? "" : value.toString()));
+        }
+
+        private void open(boolean object) {
+            if(depth == levels.length)
+                levels = Arrays.copyOf(levels, depth * 2);
+            if(levels[depth] == null)
+                levels[depth] = new level();
+            level l = levels[depth++];
+            l.object = object;
+            l.key = null;
+            l.count = 0;
+        }
+
+        private void close(String empty) throws IOException {
+            level l = levels[--depth];
+            add(l.count == 0 ? spill_entry.leaf(empty) : write_record(l));
+        }
+
+        private void add(spill_entry e) throws IOException {
+            if(depth == 0) {
+                if(e.size == 1) {
+                    // a scalar or empty root has no children
+                    root = out.position();
+                    out.put_int(0);
+                } else {
+                    root = e.offset;
+                }
+                return;
+            }
+            level l = levels[depth - 1];
+            e.name = l.object ? l.key : Long.toString(l.count);
+            e.seq = l.count++;
+            l.entries.add(e);
+            if(l.entries.size() >= limit) {
+                l.runs.add(write_run(list_source(ordered(l))));
+                l.entries.clear();
+                if(l.object && l.runs.size() >= fan_in) {
+                    Path merged = write_run(merge(readers(l.runs)));
+                    delete(l.runs);
+                    l.runs.add(merged);
+                }
+            }
+        }
+
+        // writes the record of a closed level and returns its entry for the parent
+        private spill_entry write_record(level l) throws IOException {
+            entry_source source;
+            if(l.object) {
+                List<entry_source> sources = readers(l.runs);
+                sources.add(list_source(ordered(l)));
+                source = merge(sources);
             } else {
-                json_parser jp = new json_parser(dataset_orig);
-                Object json = jp.parse_value();
-                orig_tree = build_tree_from_json(json, "");
+                source = concat(l.runs, l.entries);
             }
-        } catch(Exception e) {
-            System.out.println(0);
+            long start = out.position();
+            out.put_int(0);
+            long h = node_hash;
+            long size = 1;
+            int count = 0;
+            for(spill_entry e = source.next(); e != null; e = source.next()) {
+                e.write(out);
+                h = child_hash(h, string_hash(e.name), e.hash);
+                size += e.size;
+                count++;
+            }
+            out.patch_int(start, count);
+            delete(l.runs);
+            l.entries.clear();
+            return new spill_entry(h, size, null, start);
+        }
+
+        // the buffered entries in record order: an object's by name with only the last of a repeated key
+        private List<spill_entry> ordered(level l) {
+            List<spill_entry> entries = l.entries;
+            if(!l.object)
+                return entries;
+            entries.sort((x, y) -> x.name.compareTo(y.name));
+            int kept = 0;
+            for(int i = 0; i < entries.size(); i++) {
+                if(i + 1 < entries.size() && entries.get(i + 1).name.equals(entries.get(i).name)) {
+                    duplicate_keys++;
+                    continue;
+                }
+                entries.set(kept++, entries.get(i));
+            }
+            entries.subList(kept, entries.size()).clear();
+            return entries;
+        }
+
+        private Path write_run(entry_source source) throws IOException {
+            Path path = dir.resolve("run-" + runs_made++);
+            try(DataOutputStream run = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+                for(spill_entry e = source.next(); e != null; e = source.next()) {
+                    e.write(run);
+                }
+                run.writeInt(-1);
+            }
+            return path;
+        }
+
+        private static List<entry_source> readers(List<Path> runs) throws IOException {
+            List<entry_source> readers = new ArrayList<>();
+            for(Path run : runs) {
+                readers.add(new run_reader(run));
+            }
+            return readers;
+        }
+
+        private static void delete(List<Path> runs) throws IOException {
+            for(Path run : runs) {
+                Files.delete(run);
+            }
+            runs.clear();
+        }
+
+        private static entry_source list_source(List<spill_entry> entries) {
+            Iterator<spill_entry> it = entries.iterator();
+            return () -> it.hasNext() ? it.next() : null;
+        }
+
+        // an array's runs one after another, each opened once the one before it ends, then the buffer
+        private static entry_source concat(List<Path> runs, List<spill_entry> last) {
+            return new entry_source() {
+                private int next_run;
+                private entry_source current;
+
+                @Override
+                public spill_entry next() throws IOException {
+                    while(true) {
+                        if(current != null) {
+                            spill_entry e = current.next();
+                            if(e != null || next_run > runs.size())
+                                return e;
+                        }
+                        current = next_run < runs.size() ? new run_reader(runs.get(next_run)) : list_source(last);
+                        next_run++;
+                    }
+                }
+            };
+        }
+
+        // sorted sources merged by name. the sources are in member order, so among entries with the same name
+        // the later one comes out of the queue last and is the one kept
+        private entry_source merge(List<entry_source> sources) throws IOException {
+            PriorityQueue<run_head> heads = new PriorityQueue<>((x, y) -> {
+                int c = x.entry.name.compareTo(y.entry.name);
+                return c != 0 ? c : Long.compare(x.entry.seq, y.entry.seq);
+            });
+            for(entry_source source : sources) {
+                run_head head = new run_head(source);
+                if(head.entry != null)
+                    heads.add(head);
+            }
+            return new entry_source() {
+                @Override
+                public spill_entry next() throws IOException {
+                    spill_entry e = pop();
+                    while(e != null && !heads.isEmpty() && heads.peek().entry.name.equals(e.name)) {
+                        duplicate_keys++;
+                        e = pop();
+                    }
+                    return e;
+                }
+
+                private spill_entry pop() throws IOException {
+                    run_head head = heads.poll();
+                    if(head == null)
+                        return null;
+                    spill_entry e = head.entry;
+                    head.entry = head.source.next();
+                    if(head.entry != null)
+                        heads.add(head);
+                    return e;
+                }
+            };
+        }
+
+        // a source in a merge and the entry it is at
+        static class run_head {
+            final entry_source source;
+            spill_entry entry;
+
+            run_head(entry_source source) throws IOException {
+                this.source = source;
+                this.entry = source.next();
+            }
+        }
+    }
+
+    // writes a finished tree's records, children before parents, and returns the position of the root's
+    static long write_tree(spill_writer out, tree_node root, symbol_table symbols) throws IOException {
+        List<tree_node> order = new ArrayList<>();
+        ArrayDeque<tree_node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while(!stack.isEmpty()) {
+            tree_node node = stack.pop();
+            order.add(node);
+            for(tree_node child : node.children) {
+                stack.push(child);
+            }
+        }
+        Map<tree_node, Long> records = new IdentityHashMap<>();
+        for(int i = order.size() - 1; i >= 0; i--) {
+            tree_node node = order.get(i);
+            if(node.children.isEmpty() && node != root)
+                continue;
+            long start = out.position();
+            out.put_int(node.children.size());
+            for(tree_node child : node.children) {
+                spill_entry e = child.is_leaf ? spill_entry.leaf(child.value) : new spill_entry(child.hash, child.size, null, records.remove(child));
+                e.name = symbols.name(child.name);
+                e.write(out);
+            }
+            records.put(node, start);
+        }
+        return records.get(root);
+    }
+
+    // parses one dataset file into a spill file and maps it. XML is still parsed into a tree_node tree,
+    // since xml_parser works on a String, and only the diff runs off the heap
+    static spill_map spill(String path, Path spill_path, Path dir, int limit) throws Exception {
+        mapped_chars dataset = map_dataset(path);
+        try(spill_writer out = new spill_writer(spill_path)) {
+            if(dataset.length() > 0 && dataset.charAt(0) == '<') {
+                symbol_table symbols = new symbol_table();
+                tree_node root = build_tree(decode(dataset.toString()), symbols);
+                symbols.freeze();
+                finish(root, symbols);
+                out.put_long(write_tree(out, root, symbols));
+            } else {
+                parse_event parse = new parse_event();
+                parse.begin();
+                json_event_parser parser = new json_event_parser(dataset, false);
+                spill_builder builder = new spill_builder(out, dir, limit);
+                boolean valid = false;
+                try {
+                    parser.parse_value(builder);
+                    valid = true;
+                } finally {
+                    parsed(parse, "json", dataset.length(), parser.values, parser.max_depth, builder.duplicate_keys, valid);
+                }
+                out.put_long(builder.root);
+            }
+        }
+        return spill_map.open(spill_path);
+    }
+
+    // a spill file mapped in 1 GB chunks. each chunk maps 8 bytes past its end, so an int or a long that
+    // starts in a chunk is read whole from it
+    static class spill_map {
+        private static final int chunk_bits = 30;
+        private static final long chunk_mask = (1L << chunk_bits) - 1;
+        private final ByteBuffer[] chunks;
+        final long root;
+
+        // the fields of the entry at some position, and where the entry after it starts
+        static class entry {
+            long name; // position of the name
+            long hash;
+            long size;
+            long target; // position of the value for a leaf, of the record otherwise
+            long next;
+        }
+
+        private spill_map(ByteBuffer[] chunks, long size) {
+            this.chunks = chunks;
+            this.root = get_long(size - 8);
+        }
+
+        static spill_map open(Path path) throws IOException {
+            try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                ByteBuffer[] chunks = new ByteBuffer[(int) ((size + chunk_mask) >>> chunk_bits)];
+                for(int i = 0; i < chunks.length; i++) {
+                    long start = (long) i << chunk_bits;
+                    chunks[i] = snapshot.map(channel, start, Math.min(size - start, chunk_mask + 1 + 8));
+                }
+                return new spill_map(chunks, size);
+            }
+        }
+
+        int get_int(long p) {
+            return chunks[(int) (p >>> chunk_bits)].getInt((int) (p & chunk_mask));
+        }
+
+        long get_long(long p) {
+            return chunks[(int) (p >>> chunk_bits)].getLong((int) (p & chunk_mask));
+        }
+
+        char get_char(long p) {
+            return chunks[(int) (p >>> chunk_bits)].getChar((int) (p & chunk_mask));
+        }
+
+        long string_end(long p) {
+            return p + 4 + 2L * get_int(p);
+        }
+
+        boolean same_string(long p, spill_map other, long q) {
+            int length = get_int(p);
+            if(other.get_int(q) != length)
+                return false;
+            for(int i = 0; i < length; i++) {
+                if(get_char(p + 4 + 2L * i) != other.get_char(q + 4 + 2L * i))
+                    return false;
+            }
+            return true;
+        }
+
+        void read(long p, entry e) {
+            e.name = p;
+            long q = string_end(p);
+            e.hash = get_long(q);
+            e.size = get_long(q + 8);
+            if(e.size == 1) {
+                e.target = q + 16;
+                e.next = string_end(e.target);
+            } else {
+                e.target = get_long(q + 16);
+                e.next = q + 24;
+            }
+        }
+    }
+
+    // the diff of the roots' children over two spill files, with the costs of store_drain(). a frame reads
+    // the entries of one pair of records side by side and adds the cost of the unaligned tail once the
+    // aligned ones run out, so memory grows with depth and not with the number of children
+    static int spill_children_diff(spill_map A, spill_map B) {
+        spill_frames frames = new spill_frames();
+        frames.push(A, A.root, B, B.root);
+        spill_map.entry ea = new spill_map.entry(), eb = new spill_map.entry();
+        int cost = 0;
+        while(frames.size > 0) {
+            int f = frames.size - 1;
+            if(frames.left[f] == 0) {
+                cost += spill_leaf_entries(B, frames.cb[f], frames.rest_b[f], 2) + spill_leaf_entries(A, frames.ca[f], frames.rest_a[f], 1);
+                frames.size--;
+            } else {
+                frames.left[f]--;
+                A.read(frames.ca[f], ea);
+                B.read(frames.cb[f], eb);
+                frames.ca[f] = ea.next;
+                frames.cb[f] = eb.next;
+                boolean same_name = A.same_string(ea.name, B, eb.name);
+                if(same_name && ea.hash == eb.hash && ea.size == eb.size)
+                    continue; // identical subtrees
+                if(!same_name)
+                    cost += 1;
+                boolean a_leaf = ea.size == 1, b_leaf = eb.size == 1;
+                if(a_leaf && b_leaf)
+                    cost += A.same_string(ea.target, B, eb.target) ? 0 : 1;
+                else if(!a_leaf && !b_leaf)
+                    frames.push(A, ea.target, B, eb.target);
+                else if(a_leaf)
+                    cost += 1 + spill_leaf_entries(B, eb.target + 4, B.get_int(eb.target), 2);
+                else
+                    cost += 1 + spill_leaf_entries(A, ea.target + 4, A.get_int(ea.target), 1);
+            }
+            if(cost >= inf)
+                return inf;
+        }
+        return cost;
+    }
+
+    // cost of inserting or deleting the n entries from position p on, each_cost each; only leaves can go
+    static int spill_leaf_entries(spill_map M, long p, int n, int each_cost) {
+        spill_map.entry e = new spill_map.entry();
+        int cost = 0;
+        for(int i = 0; i < n; i++) {
+            M.read(p, e);
+            if(e.size != 1)
+                return inf;
+            cost += each_cost;
+            if(cost >= inf)
+                return inf;
+            p = e.next;
+        }
+        return cost;
+    }
+
+    // growable stack of record pairs being walked: the next entry on each side, how many aligned pairs are
+    // left, and how many entries each side has past them
+    static class spill_frames {
+        long[] ca = new long[16], cb = new long[16];
+        int[] left = new int[16], rest_a = new int[16], rest_b = new int[16];
+        int size;
+
+        void push(spill_map A, long ra, spill_map B, long rb) {
+            if(size == left.length) {
+                int n = size * 2;
+                ca = Arrays.copyOf(ca, n);
+                cb = Arrays.copyOf(cb, n);
+                left = Arrays.copyOf(left, n);
+                rest_a = Arrays.copyOf(rest_a, n);
+                rest_b = Arrays.copyOf(rest_b, n);
+            }
+            int m = A.get_int(ra), n = B.get_int(rb), k = Math.min(m, n);
+            ca[size] = ra + 4;
+            cb[size] = rb + 4;
+            left[size] = k;
+            rest_a[size] = m - k;
+            rest_b[size] = n - k;
+            size++;
+        }
+    }
+
+    // the --external mode: spills both files into a temporary directory, diffs them, and removes it again
+    static int external_diff(String final_path, String orig_path, int limit) throws IOException {
+        Path dir = Files.createTempDirectory("task3-external");
+        try {
+            spill_map fin, orig;
+            try {
+                fin = spill(final_path, dir.resolve("final"), dir, limit);
+                orig = spill(orig_path, dir.resolve("orig"), dir, limit);
+            } catch(Exception e) {
+                return 0;
+            }
+            diff_event event = new diff_event();
+            event.begin();
+            return diffed(event, "external", spill_children_diff(orig, fin));
+        } finally {
+            try(DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for(Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    // a dataset starting with '<' is XML, anything else is JSON. the tree still needs finish()
+    static tree_node build_tree(String dataset, symbol_table symbols) throws Exception {
+        parse_event parse = new parse_event();
+        parse.begin();
+        if(dataset.startsWith("<")) {
+            xml_parser xp = new xml_parser(dataset, symbols);
+            tree_node root = null;
+            try {
+                root = xp.parse();
+            } finally {
+                parsed(parse, "xml", dataset.length(), xp.elements, xp.max_depth, xp.duplicate_tags, root != null);
+            }
+            return root;
+        }
+        json_event_parser parser = new json_event_parser(dataset, false);
+        json_builder builder = new json_builder(symbols);
+        boolean valid = false;
+        try {
+            parser.parse_value(builder);
+            valid = true;
+        } finally {
+            parsed(parse, "json", dataset.length(), parser.values, parser.max_depth, builder.duplicate_keys, valid);
+        }
+        return builder.root;
+    }
+
+    private static void parsed(parse_event event, String format, int bytes, int nodes, int max_depth, int duplicates, boolean valid) {
+        event.end();
+        if(event.shouldCommit()) {
+            event.format = format;
+            event.bytes = bytes;
+            event.nodes = nodes;
+            event.max_depth = max_depth;
+            event.duplicate_keys = duplicates;
+            event.valid = valid;
+            event.commit();
+        }
+        metrics.record(bytes, nodes, duplicates, valid);
+    }
+
+    // records one diff, whose answer may still be inf, and returns what main prints for it
+    static int diffed(diff_event event, String mode, int answer) {
+        event.end();
+        boolean short_circuit = answer >= inf;
+        if(event.shouldCommit()) {
+            event.mode = mode;
+            event.answer = short_circuit ? 0 : answer;
+            event.inf = short_circuit;
+            event.commit();
+        }
+        diffs.increment();
+        if(short_circuit)
+            inf_diffs.increment();
+        return short_circuit ? 0 : answer;
+    }
+
+    @Name("bp.task3.Read")
+    @Label("task3 Read")
+    @Category({"bp", "task3"})
+    static class read_event extends Event {
+        @Label("Bytes In")
+        @DataAmount
+        long bytes;
+    }
+
+    // both parsers build tree_nodes as they go, so this covers building the tree as well
+    @Name("bp.task3.Parse")
+    @Label("task3 Parse")
+    @Category({"bp", "task3"})
+    static class parse_event extends Event {
+        @Label("Format")
+        String format;
+        @Label("Bytes In")
+        @DataAmount
+        long bytes;
+        @Label("Nodes Built")
+        int nodes;
+        @Label("Max Depth")
+        int max_depth;
+        @Label("Duplicate Keys Collapsed")
+        int duplicate_keys;
+        @Label("Valid")
+        boolean valid;
+    }
+
+    @Name("bp.task3.Finish")
+    @Label("task3 Finish")
+    @Category({"bp", "task3"})
+    static class finish_event extends Event {
+        @Label("Nodes")
+        int nodes;
+        @Label("Child Lists Sorted")
+        int sorted_lists;
+    }
+
+    @Name("bp.task3.Diff")
+    @Label("task3 Diff")
+    @Category({"bp", "task3"})
+    static class diff_event extends Event {
+        @Label("Mode")
+        String mode;
+        @Label("Answer")
+        int answer;
+        @Label("Short-Circuited To Inf")
+        boolean inf;
+    }
+
+    @Name("bp.task3.Counters")
+    @Label("task3 Counters")
+    @Category({"bp", "task3"})
+    @Period("1 s")
+    static class counters_event extends Event {
+        @Label("Datasets")
+        long datasets;
+        @Label("Invalid Datasets")
+        long invalid;
+        @Label("Bytes In")
+        @DataAmount
+        long bytes;
+        @Label("Nodes Built")
+        long nodes;
+        @Label("Duplicate Keys Collapsed")
+        long duplicate_keys;
+        @Label("Diffs")
+        long diffs;
+        @Label("Diffs Short-Circuited To Inf")
+        long inf_diffs;
+    }
+
+    // the totals every dataset read in this process adds to, and every diff, published as counters_event
+    static final LongAdder diffs = new LongAdder();
+    static final LongAdder inf_diffs = new LongAdder();
+    static final tool_metrics metrics = new tool_metrics(counters_event.class, m -> {
+        counters_event event = new counters_event();
+        event.datasets = m.documents.sum();
+        event.invalid = m.invalid.sum();
+        event.bytes = m.bytes.sum();
+        event.nodes = m.nodes.sum();
+        event.duplicate_keys = m.duplicates.sum();
+        event.diffs = diffs.sum();
+        event.inf_diffs = inf_diffs.sum();
+        return event;
+    });
+
+    // builds, finishes and stores a single dataset against its own tables
+    static tree_store build_store(String dataset, symbol_table symbols, value_table values) throws Exception {
+        tree_node tree = build_tree(dataset, symbols);
+        symbols.freeze();
+        finish(tree, symbols);
+        return tree_store.of(tree, values);
+    }
+
+    // splits the input lines at every "---" line into trimmed datasets
+    static List<String> split_datasets(List<String> lines) {
+        List<String> datasets = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        for(String l : lines) {
+            if(l.trim().equals("---")) {
+                datasets.add(sb.toString().trim());
+                sb.setLength(0);
+            } else {
+                sb.append(l).append("\n");
+            }
+        }
+        datasets.add(sb.toString().trim());
+        return datasets;
+    }
+
+    // builds and finishes every dataset against one shared symbol_table, so any two of them can be
+    // diffed. parsing interns into the table and stays on one thread; a dataset that fails to parse
+    // is left null and every pair it takes part in scores 0. leaves[i] is set to what finish() returned
+    static tree_node[] build_all(List<String> datasets, int[] leaves) {
+        symbol_table symbols = new symbol_table();
+        tree_node[] trees = new tree_node[datasets.size()];
+        for(int i = 0; i < trees.length; i++) {
+            try {
+                trees[i] = build_tree(datasets.get(i), symbols);
+            } catch(Exception e) {
+                trees[i] = null;
+            }
+        }
+        symbols.freeze();
+        for(int i = 0; i < trees.length; i++) {
+            if(trees[i] != null)
+                leaves[i] = finish(trees[i], symbols);
+        }
+        return trees;
+    }
+
+    static int pair_diff(tree_node orig, tree_node fin) {
+        if(orig == null || fin == null)
+            return 0;
+        diff_event event = new diff_event();
+        event.begin();
+        return diffed(event, "batch", children_diff(orig.children, fin.children));
+    }
+
+    // pair_diff() of trees i and j, or with a budget of 0 or more what --within prints for them
+    static String pair_answer(tree_node[] trees, int[] leaves, int i, int j, int budget) {
+        if(budget < 0)
+            return String.valueOf(pair_diff(trees[i], trees[j]));
+        if(trees[i] == null || trees[j] == null)
+            return "0";
+        diff_event event = new diff_event();
+        event.begin();
+        return within(diffed(event, "within", bounded_diff(trees[i], leaves[i], trees[j], leaves[j], budget)), budget);
+    }
+
+    // with all_pairs, line i holds the diffs from dataset i to every dataset j; otherwise the first
+    // dataset is the original state and each line holds the diff from it to one of the others.
+    // every dataset is parsed once, lines are computed on all cores and written in order as they finish.
+    // a budget of 0 or more bounds every diff as --within does
+    static void diff_batch(List<String> datasets, boolean all_pairs, int budget, Writer out) throws IOException {
+        int[] leaves = new int[datasets.size()];
+        tree_node[] trees = build_all(datasets, leaves);
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, daemon_threads("task3-batch"));
+        ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+        try {
+            for(int i = all_pairs ? 0 : 1; i < trees.length; i++) {
+                pending.add(pool.submit(all_pairs ? diff_row(trees, leaves, i, budget) : diff_one(trees, leaves, i, budget)));
+                while(pending.size() > threads * 4) {
+                    out.write(pending.poll().get());
+                }
+            }
+            while(!pending.isEmpty()) {
+                out.write(pending.poll().get());
+            }
+            out.flush();
+        } catch(InterruptedException | ExecutionException e) {
+            throw new IOException("batch diff failed", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Callable<String> diff_row(tree_node[] trees, int[] leaves, int i, int budget) {
+        return () -> {
+            StringBuilder sb = new StringBuilder();
+            for(int j = 0; j < trees.length; j++) {
+                if(j > 0)
+                    sb.append(' ');
+                sb.append(pair_answer(trees, leaves, i, j, budget));
+            }
+            return sb.append('\n').toString();
+        };
+    }
+
+    private static Callable<String> diff_one(tree_node[] trees, int[] leaves, int i, int budget) {
+        return () -> pair_answer(trees, leaves, 0, i, budget) + "\n";
+    }
+
+    // MinHash fingerprints in LSH buckets, for finding near-duplicates without diffing every pair. a tree's
+    // shingles are its leaves below the root, each hashed from the chain of name ids down to it and the
+    // leaf's own hash, so editing a leaf changes one shingle. for each of bands * rows hash functions the
+    // signature keeps the smallest hash of any shingle, and two trees agree on an entry with probability
+    // equal to the Jaccard similarity of their shingle sets. a tree goes into one bucket per band of rows
+    // entries, so two trees are candidates when they agree on a whole band: with 16 bands of 4 that happens
+    // with probability 0.12 at similarity 0.3, 0.64 at 0.5 and 0.9998 at 0.8. looking up a tree's
+    // candidates costs one bucket per band instead of a pass over every other tree. ids and hashes only
+    // compare across trees finished against the same symbol_table
+    static class near_index {
+        static final int bands = 16;
+        static final int rows = 4;
+        private static final long[] seeds = seeds();
+        private final List<Map<Long, List<Integer>>> buckets = new ArrayList<>();
+
+        near_index() {
+            for(int b = 0; b < bands; b++) {
+                buckets.add(new HashMap<>());
+            }
+        }
+
+        private static long[] seeds() {
+            long[] seeds = new long[bands * rows];
+            for(int i = 0; i < seeds.length; i++) {
+                seeds[i] = mix(0x6d696e6861736800L + i);
+            }
+            return seeds;
+        }
+
+        // the walk keeps each node's path hash next to it on the stack
+        static long[] signature(tree_node root) {
+            long[] signature = new long[bands * rows];
+            Arrays.fill(signature, Long.MAX_VALUE);
+            ArrayDeque<tree_node> nodes = new ArrayDeque<>();
+            ArrayDeque<Long> paths = new ArrayDeque<>();
+            nodes.push(root);
+            paths.push(node_hash);
+            while(!nodes.isEmpty()) {
+                tree_node node = nodes.pop();
+                long path = paths.pop();
+                for(tree_node child : node.children) {
+                    long child_path = mix(path ^ child.name);
+                    if(child.is_leaf) {
+                        long shingle = mix(child_path ^ child.hash);
+                        for(int i = 0; i < signature.length; i++) {
+                            signature[i] = Math.min(signature[i], mix(shingle ^ seeds[i]));
+                        }
+                    } else {
+                        nodes.push(child);
+                        paths.push(child_path);
+                    }
+                }
+            }
+            return signature;
+        }
+
+        void add(int id, long[] signature) {
+            for(int b = 0; b < bands; b++) {
+                buckets.get(b).computeIfAbsent(band_key(signature, b), k -> new ArrayList<>()).add(id);
+            }
+        }
+
+        // ids added with a signature that shares at least one band with this one, in increasing order
+        int[] candidates(long[] signature) {
+            Set<Integer> found = new HashSet<>();
+            for(int b = 0; b < bands; b++) {
+                List<Integer> bucket = buckets.get(b).get(band_key(signature, b));
+                if(bucket != null)
+                    found.addAll(bucket);
+            }
+            int[] ids = new int[found.size()];
+            int n = 0;
+            for(int id : found) {
+                ids[n++] = id;
+            }
+            Arrays.sort(ids);
+            return ids;
+        }
+
+        private static long band_key(long[] signature, int band) {
+            long h = band;
+            for(int r = 0; r < rows; r++) {
+                h = mix(h ^ signature[band * rows + r]);
+            }
+            return h;
+        }
+    }
+
+    // prints "i j diff" for every ordered pair of datasets whose diff from i to j is at most budget, in order.
+    // only pairs that near_index makes candidates are diffed, so a pair whose shingle sets overlap little,
+    // as in a small document with a few edits, can be missed
+    static void near_batch(List<String> datasets, int budget, Writer out) throws IOException {
+        int[] leaves = new int[datasets.size()];
+        tree_node[] trees = build_all(datasets, leaves);
+        near_index index = new near_index();
+        long[][] signatures = new long[trees.length][];
+        for(int i = 0; i < trees.length; i++) {
+            if(trees[i] != null) {
+                signatures[i] = near_index.signature(trees[i]);
+                index.add(i, signatures[i]);
+            }
+        }
+        for(int i = 0; i < trees.length; i++) {
+            if(trees[i] == null)
+                continue;
+            for(int j : index.candidates(signatures[i])) {
+                if(j == i)
+                    continue;
+                diff_event event = new diff_event();
+                event.begin();
+                int answer = diffed(event, "near", bounded_diff(trees[i], leaves[i], trees[j], leaves[j], budget));
+                if(answer <= budget)
+                    out.write(i + " " + j + " " + answer + "\n");
+            }
+        }
+        out.flush();
+    }
+
+    // --stream: a long run of pairs, each a final dataset, a "---" line and an original dataset, with a "==="
+    // line after every pair but the last; a record of only blank lines is not a pair and gets no answer. a
+    // reader thread cuts the input into pairs, a pool parses and finishes them, a second pool diffs them, and
+    // main writes one answer per pair in input order. the reader blocks once stream_window answers are still
+    // unwritten, so the pairs in memory at any time are those plus the one being read, however long the
+    // stream is
+    static final int stream_window = 64;
+
+    static void diff_stream(BufferedReader in, boolean parallel, boolean compact, int budget, Writer out) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService parse_pool = Executors.newFixedThreadPool(threads, daemon_threads("task3-parse"));
+        ExecutorService diff_pool = Executors.newFixedThreadPool(Math.max(1, threads / 2), daemon_threads("task3-diff"));
+        BlockingQueue<CompletableFuture<String>> answers = new ArrayBlockingQueue<>(stream_window);
+        Thread reader = daemon_threads("task3-read").newThread(() -> {
+            try {
+                CompletableFuture<String> end;
+                try {
+                    List<String> lines = new ArrayList<>();
+                    boolean blank = true;
+                    String line;
+                    while((line = in.readLine()) != null) {
+                        if(line.trim().equals("===")) {
+                            if(!blank)
+                                answers.put(stream_answer(lines, parse_pool, diff_pool, parallel, compact, budget));
+                            lines = new ArrayList<>();
+                            blank = true;
+                        } else {
+                            lines.add(line);
+                            blank &= line.isBlank();
+                        }
+                    }
+                    if(!blank)
+                        answers.put(stream_answer(lines, parse_pool, diff_pool, parallel, compact, budget));
+                    end = CompletableFuture.completedFuture(null);
+                } catch(IOException e) {
+                    end = CompletableFuture.failedFuture(e);
+                }
+                answers.put(end);
+            } catch(InterruptedException e) {
+                // main has stopped waiting for answers
+            }
+        });
+        reader.start();
+        try {
+            while(true) {
+                String answer = answers.take().get();
+                if(answer == null)
+                    break;
+                out.write(answer);
+                // flush whenever main would otherwise wait, so a consumer sees each answer once it is known
+                CompletableFuture<String> next = answers.peek();
+                if(next == null || !next.isDone())
+                    out.flush();
+            }
+            out.flush();
+        } catch(InterruptedException | ExecutionException e) {
+            throw new IOException("stream diff failed", e);
+        } finally {
+            reader.interrupt();
+            parse_pool.shutdownNow();
+            diff_pool.shutdownNow();
+        }
+    }
+
+    // the answer line for one pair, parsed on parse_pool and diffed on diff_pool
+    private static CompletableFuture<String> stream_answer(List<String> lines, ExecutorService parse_pool, ExecutorService diff_pool,
+                                                           boolean parallel, boolean compact, int budget) {
+        return CompletableFuture.supplyAsync(() -> build_pair(lines), parse_pool).thenApplyAsync(pair -> {
+            int answer = pair == null ? 0 : diff_pair(pair, parallel, compact, budget);
+            return (budget >= 0 ? within(answer, budget) : String.valueOf(answer)) + "\n";
+        }, diff_pool);
+    }
+
+    static ThreadFactory daemon_threads(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    public static void main(String[] args) throws IOException {
+        // --parallel runs the diff on the fork/join pool
+        // --compact copies both trees into tree_stores and diffs those
+        // --save file reads one dataset and writes it as a snapshot
+        // --snapshot file reads one dataset, the final state, and diffs it against the snapshot
+        // --against reads datasets split by ---, the first is the original and the rest are diffed against it
+        // --matrix reads datasets split by --- and prints the diff of every ordered pair
+        // --within k prints the diff only if it is at most k and ">k" otherwise, stopping as soon as that is
+        //   known; it also applies to --against and --matrix
+        // --near k reads datasets split by --- and prints "i j diff" for the ordered pairs within k of each other
+        //   that the MinHash index makes candidates
+        // --stream reads pairs separated by "===" lines, each a final dataset, "---" and an original dataset, and
+        //   prints one diff per pair as the pairs are read, parsing and diffing several at once
+        // --external final_file orig_file diffs two dataset files through spill files, without either tree in the heap
+        boolean parallel = false;
+        boolean against = false;
+        boolean matrix = false;
+        boolean compact = false;
+        boolean stream = false;
+        String save_path = null;
+        String snapshot_path = null;
+        String external_final = null, external_orig = null;
+        int budget = -1;
+        int near = -1;
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("--parallel"))
+                parallel = true;
+            else if(args[i].equals("--compact"))
+                compact = true;
+            else if(args[i].equals("--stream"))
+                stream = true;
+            else if(args[i].equals("--against"))
+                against = true;
+            else if(args[i].equals("--matrix"))
+                matrix = true;
+            else if(args[i].equals("--save") && i + 1 < args.length)
+                save_path = args[++i];
+            else if(args[i].equals("--snapshot") && i + 1 < args.length)
+                snapshot_path = args[++i];
+            else if(args[i].equals("--within"))
+                budget = budget_arg(args, ++i);
+            else if(args[i].equals("--near"))
+                near = budget_arg(args, ++i);
+            else if(args[i].equals("--external") && i + 2 < args.length) {
+                external_final = args[++i];
+                external_orig = args[++i];
+            }
+        }
+        if(external_final != null) {
+            System.out.println(external_diff(external_final, external_orig, run_limit));
+            return;
+        }
+        BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+        if(stream) {
+            metrics.register();
+            diff_stream(br, parallel, compact, budget, new BufferedWriter(new OutputStreamWriter(System.out)));
+            return;
+        }
+        read_event read = new read_event();
+        read.begin();
+        List<String> all_lines = new ArrayList<>();
+        long bytes = 0;
+        String line;
+        while((line = br.readLine()) != null) {
+            all_lines.add(line);
+            bytes += line.length() + 1;
+        }
+        read.end();
+        if(read.shouldCommit()) {
+            read.bytes = bytes;
+            read.commit();
+        }
+        if(near >= 0) {
+            metrics.register();
+            near_batch(split_datasets(all_lines), near, new BufferedWriter(new OutputStreamWriter(System.out)));
+            return;
+        }
+        if(against || matrix) {
+            metrics.register();
+            diff_batch(split_datasets(all_lines), matrix, budget, new BufferedWriter(new OutputStreamWriter(System.out)));
             return;
         }
-        int answer = children_diff(orig_tree.children, final_tree.children);
-        System.out.println(answer >= inf ? 0 : answer);
+        if(save_path != null) {
+            symbol_table symbols = new symbol_table();
+            value_table values = new value_table();
+            tree_store store;
+            try {
+                store = build_store(String.join("\n", all_lines).trim(), symbols, values);
+            } catch(Exception e) {
+                System.out.println(0);
+                return;
+            }
+            snapshot.write(save_path, store, symbols, values);
+            return;
+        }
+        if(snapshot_path != null) {
+            System.out.println(snapshot_diff(String.join("\n", all_lines).trim(), snapshot_path));
+            return;
+        }
+        if(budget >= 0) {
+            System.out.println(within(diff_lines(all_lines, parallel, compact, budget), budget));
+            return;
+        }
+        System.out.println(diff_lines(all_lines, parallel, compact));
+    }
+
+    // --snapshot: the final dataset against the original saved at snapshot_path. returns what main prints
+    static int snapshot_diff(String dataset, String snapshot_path) throws IOException {
+        symbol_table symbols = new symbol_table();
+        value_table values = new value_table();
+        tree_store store;
+        try {
+            store = build_store(dataset, symbols, values);
+        } catch(Exception e) {
+            return 0;
+        }
+        snapshot base = snapshot.open(snapshot_path);
+        base.relabel(store, symbols, values);
+        diff_event event = new diff_event();
+        event.begin();
+        return diffed(event, "snapshot", store_children_diff(base.store, 0, store, 0));
+    }
+
+    // the k after --within or --near at args[i]. anything but a number parse_budget() accepts ends main with
+    // a usage error
+    static int budget_arg(String[] args, int i) {
+        int k = i < args.length ? parse_budget(args[i]) : -1;
+        if(k < 0) {
+            System.err.println("usage: java task3 " + args[i - 1] + " k, with k a number of edits from 0 to " + (inf - 2));
+            System.exit(2);
+        }
+        return k;
+    }
+
+    // k as a budget, or -1 if it is not a number from 0 to inf - 2. bounded_diff() answers budget + 1 when
+    // the diff is over, which must stay below inf, since diffed() turns inf into the 0 of an impossible diff
+    static int parse_budget(String k) {
+        if(!k.matches("[0-9]{1,9}"))
+            return -1;
+        int budget = Integer.parseInt(k);
+        return budget <= inf - 2 ? budget : -1;
+    }
+
+    // the default mode: final dataset, a "---" line, original dataset. returns what main prints
+    static int diff_lines(List<String> all_lines, boolean parallel, boolean compact) {
+        return diff_lines(all_lines, parallel, compact, -1);
+    }
+
+    // with a budget of 0 or more, the bounded_diff() of the two trees instead, whatever the other flags say
+    static int diff_lines(List<String> all_lines, boolean parallel, boolean compact, int budget) {
+        tree_pair pair = build_pair(all_lines);
+        return pair == null ? 0 : diff_pair(pair, parallel, compact, budget);
+    }
+
+    // the two finished trees of one input, built against one symbol_table
+    static class tree_pair {
+        tree_node final_tree, orig_tree;
+        final int final_leaves, orig_leaves;
+
+        tree_pair(tree_node final_tree, int final_leaves, tree_node orig_tree, int orig_leaves) {
+            this.final_tree = final_tree;
+            this.final_leaves = final_leaves;
+            this.orig_tree = orig_tree;
+            this.orig_leaves = orig_leaves;
+        }
+    }
+
+    // splits lines at the first "---" line and builds both sides, or returns null when there is no
+    // separator or a side fails to parse
+    static tree_pair build_pair(List<String> all_lines) {
+        if(all_lines.isEmpty()) {
+            return null;
+        }
+        int sep = -1;
+        for(int i = 0; i < all_lines.size(); i++) {
+            if(all_lines.get(i).trim().equals("---")) {
+                sep = i;
+                break;
+            }
+        }
+        if(sep == -1) {
+            return null;
+        }
+        StringBuilder sb_final = new StringBuilder();
+        for(int i = 0; i < sep; i++) {
+            sb_final.append(all_lines.get(i)).append("\n");
+        }
+        StringBuilder sb_orig = new StringBuilder();
+        for(int i = sep + 1; i < all_lines.size(); i++) {
+            sb_orig.append(all_lines.get(i)).append("\n");
+        }
+        String dataset_final = sb_final.toString().trim();
+        String dataset_orig = sb_orig.toString().trim();
+        try {
+            symbol_table symbols = new symbol_table();
+            tree_node final_tree = build_tree(dataset_final, symbols);
+            tree_node orig_tree = build_tree(dataset_orig, symbols);
+            symbols.freeze();
+            int final_leaves = finish(final_tree, symbols);
+            int orig_leaves = finish(orig_tree, symbols);
+            return new tree_pair(final_tree, final_leaves, orig_tree, orig_leaves);
+        } catch(Exception e) {
+            return null;
+        }
+    }
+
+    // diffs a built pair the way the flags ask. the pair gives up its trees as they are copied or diffed
+    static int diff_pair(tree_pair pair, boolean parallel, boolean compact, int budget) {
+        tree_node orig_tree = pair.orig_tree, final_tree = pair.final_tree;
+        pair.orig_tree = pair.final_tree = null;
+        diff_event event = new diff_event();
+        event.begin();
+        if(budget >= 0) {
+            return diffed(event, "within", bounded_diff(orig_tree, pair.orig_leaves, final_tree, pair.final_leaves, budget));
+        } else if(compact) {
+            value_table values = new value_table();
+            tree_store orig_store = tree_store.of(orig_tree, values);
+            orig_tree = null;
+            tree_store final_store = tree_store.of(final_tree, values);
+            final_tree = null;
+            return diffed(event, "compact", store_children_diff(orig_store, 0, final_store, 0));
+        } else if(parallel) {
+            return diffed(event, "parallel", parallel_children_diff(orig_tree.children, final_tree.children));
+        } else {
+            return diffed(event, "tree", children_diff(orig_tree.children, final_tree.children));
+        }
     }
 }
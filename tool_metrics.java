@@ -0,0 +1,60 @@
+/*
+ * this file is part of bp-json-xml project.
+ *
+ * Copyright (C) 2025 Hesam Tavakoli
+ *
+ * bp-json-xml is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+
+// running totals over every document or dataset a tool reads in this process, for the batch modes and the
+// daemon. LongAdder keeps concurrent callers from contending; register() publishes the totals through the
+// tool's own periodic counters event, which snapshot fills in from them.
+//
+// each tool also has a flight recorder event per phase. with no recording running, begin(), end() and
+// commit() cost next to nothing, and the fields are only filled in when shouldCommit() says the event is kept
+public class tool_metrics {
+    final LongAdder documents = new LongAdder();
+    final LongAdder invalid = new LongAdder();
+    final LongAdder bytes = new LongAdder();
+    final LongAdder nodes = new LongAdder(); // json values, xml elements or task3 tree nodes
+    final LongAdder duplicates = new LongAdder(); // keys collapsed or tags grouped
+    private final Class<? extends Event> counters;
+    private final Function<tool_metrics, Event> snapshot;
+    private final AtomicBoolean registered = new AtomicBoolean();
+
+    tool_metrics(Class<? extends Event> counters, Function<tool_metrics, Event> snapshot) {
+        this.counters = counters;
+        this.snapshot = snapshot;
+    }
+
+    void record(long document_bytes, int document_nodes, int document_duplicates, boolean valid) {
+        documents.increment();
+        if(!valid)
+            invalid.increment();
+        bytes.add(document_bytes);
+        nodes.add(document_nodes);
+        duplicates.add(document_duplicates);
+    }
+
+    void register() {
+        if(registered.compareAndSet(false, true))
+            FlightRecorder.addPeriodicEvent(counters, () -> snapshot.apply(this).commit());
+    }
+}